@@ -0,0 +1,9 @@
+# Fields and classes looked up by name from native code, see jni_utils.cpp
+
+-keep class ai.doc.tensorflow.Tensor { long handle; long nameHandle; boolean isBacked; java.lang.String name; ai.doc.tensorflow.DataType dtype; int[] shape; boolean scalar; }
+-keep class ai.doc.tensorflow.DataType { int value; static ai.doc.tensorflow.DataType fromC(int); }
+-keep class ai.doc.tensorflow.SavedModelBundle { long handle; boolean trainingCancelled; }
+-keep class ai.doc.tensorflow.PreparedRun { long handle; }
+-keep interface ai.doc.tensorflow.BatchSource { *; }
+-keepclassmembers class * implements ai.doc.tensorflow.BatchSource { *** getInputs(); *** getLossName(); *** nextBatch(int); }
+-keepclasseswithmembernames class ai.doc.tensorflow.** { native <methods>; }
@@ -23,6 +23,8 @@ package ai.doc.tensorflow;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.test.platform.app.InstrumentationRegistry;
@@ -36,7 +38,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystemException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 import static ai.doc.tensorflow.SavedModelBundle.Mode;
 
@@ -295,12 +302,11 @@ public class SavedModelBundleTest {
     }
 
     @Test
-    public void test1x1NumberModel() {
+    public void testScalarModelBySignature() {
         try {
-
             // Prepare Model
 
-            File tioBundle = bundleForFile("1_in_1_out_number_test.tiobundle");
+            File tioBundle = bundleForFile("scalar_test.tiobundle");
             assertNotNull(tioBundle);
 
             File modelDir = new File(tioBundle, "predict");
@@ -308,25 +314,41 @@ public class SavedModelBundleTest {
             SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
             assertNotNull(model);
 
-            // Prepare Inputs
+            // The signature's input and output are rank 0, which is not scalar
 
-            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
+            Signature signature = model.getSignature("serving_default");
+            assertNotNull(signature);
 
-            // Prepare Outputs
+            TensorSpec inputSpec = signature.getInput("input");
+            assertArrayEquals(inputSpec.getShape(), new int[0]);
+            assertFalse(inputSpec.isScalar());
 
-            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false,"output");
+            // Prepare Inputs and Outputs from their specs
+
+            Tensor input = inputSpec.newTensor();
+            input.setBytes(byteBufferWithFloats(new float[]{2}));
+
+            Tensor output = signature.getOutput("output").newTensor();
 
             // Run Model
 
-            Tensor[] inputs = {input};
-            Tensor[] outputs = {output};
+            Map<String, Tensor> inputs = new HashMap<>();
+            inputs.put("input", input);
 
-            model.run(inputs, outputs);
+            Map<String, Tensor> outputs = new HashMap<>();
+            outputs.put("output", output);
+
+            model.run("serving_default", inputs, outputs);
 
             // Read Output
 
-            ByteBuffer out = output.getBytes();
-            assertEquals(out.getFloat(), 25, epsilon);
+            assertEquals(output.getShape().length, 0);
+            assertEquals(output.count(), 1);
+            assertFalse(Float.isNaN(output.getBytes().getFloat()));
+
+            input.close();
+            output.close();
+            model.close();
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -335,11 +357,12 @@ public class SavedModelBundleTest {
     }
 
     @Test
-    public void test1x1VectorsModel() {
+    public void test1x1NumberModel() {
         try {
+
             // Prepare Model
 
-            File tioBundle = bundleForFile("1_in_1_out_vectors_test.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_number_test.tiobundle");
             assertNotNull(tioBundle);
 
             File modelDir = new File(tioBundle, "predict");
@@ -349,13 +372,11 @@ public class SavedModelBundleTest {
 
             // Prepare Inputs
 
-            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,4}, false,"input", byteBufferWithFloats(new float[] {
-                    1, 2, 3, 4
-            }));
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
 
             // Prepare Outputs
 
-            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "output");
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false,"output");
 
             // Run Model
 
@@ -366,9 +387,8 @@ public class SavedModelBundleTest {
 
             // Read Output
 
-            assertByteBufferEqualToFloats(output.getBytes(), epsilon, new float[] {
-                    2, 2, 4, 4
-            });
+            ByteBuffer out = output.getBytes();
+            assertEquals(out.getFloat(), 25, epsilon);
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -376,50 +396,48 @@ public class SavedModelBundleTest {
         }
     }
 
-    // Multiple Input/Output Tests
-
     @Test
-    public void test2x2VectorsModel() {
+    public void test1x1NumberModelWithOptions() {
         try {
+
             // Prepare Model
 
-            File tioBundle = bundleForFile("2_in_2_out_vectors_test.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_number_test.tiobundle");
             assertNotNull(tioBundle);
 
             File modelDir = new File(tioBundle, "predict");
 
-            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            SavedModelBundle.Options options = new SavedModelBundle.Options.Builder()
+                    .setIntraOpParallelismThreads(2)
+                    .setInterOpParallelismThreads(1)
+                    .setUsePerSessionThreads(true)
+                    .setOptimizerLevel(SavedModelBundle.OptimizerLevel.L0)
+                    .setConstantFolding(false)
+                    .setAllowSoftPlacement(true)
+                    .build();
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve, options);
             assertNotNull(model);
 
             // Prepare Inputs
 
-            Tensor input1 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input1", byteBufferWithFloats(new float[] {
-                    1, 2, 3, 4
-            }));
-
-            Tensor input2 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input2", byteBufferWithFloats(new float[] {
-                    10, 20, 30, 40
-            }));
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
 
             // Prepare Outputs
 
-            Tensor output1 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output1");
-            Tensor output2 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output2");
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false,"output");
 
             // Run Model
 
-            Tensor[] inputs = {input1, input2};
-            Tensor[] outputs = {output1, output2};
+            Tensor[] inputs = {input};
+            Tensor[] outputs = {output};
 
             model.run(inputs, outputs);
 
             // Read Output
 
-            ByteBuffer out1 = output1.getBytes();
-            assertEquals(out1.getFloat(), 240, epsilon);
-
-            ByteBuffer out2 = output2.getBytes();
-            assertEquals(out2.getFloat(), 64, epsilon);
+            ByteBuffer out = output.getBytes();
+            assertEquals(out.getFloat(), 25, epsilon);
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -428,11 +446,11 @@ public class SavedModelBundleTest {
     }
 
     @Test
-    public void test2x2MatricesModel() {
+    public void test1x1VectorsModel() {
         try {
             // Prepare Model
 
-            File tioBundle = bundleForFile("2_in_2_out_matrices_test.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_vectors_test.tiobundle");
             assertNotNull(tioBundle);
 
             File modelDir = new File(tioBundle, "predict");
@@ -442,46 +460,25 @@ public class SavedModelBundleTest {
 
             // Prepare Inputs
 
-            Tensor input1 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "input1", byteBufferWithFloats(new float[]{
-                    1,    2,    3,    4,
-                    10,   20,   30,   40,
-                    100,  200,  300,  400,
-                    1000, 2000, 3000, 4000
-            }));
-
-            Tensor input2 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "input2", byteBufferWithFloats(new float[] {
-                    5,    6,    7,    8,
-                    50,   60,   70,   80,
-                    500,  600,  700,  800,
-                    5000, 6000, 7000, 8000
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,4}, false,"input", byteBufferWithFloats(new float[] {
+                    1, 2, 3, 4
             }));
 
             // Prepare Outputs
 
-            Tensor output1 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "output1");
-            Tensor output2 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "output2");
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "output");
 
             // Run Model
 
-            Tensor[] inputs = {input1, input2};
-            Tensor[] outputs = {output1, output2};
+            Tensor[] inputs = {input};
+            Tensor[] outputs = {output};
 
             model.run(inputs, outputs);
 
             // Read Output
 
-            assertByteBufferEqualToFloats(output1.getBytes(), epsilon, new float[] {
-                    56,       72,       56,       72,
-                    5600,     7200,     5600,     7200,
-                    560000,   720000,   560000,   720000,
-                    56000000, 72000000, 56000000, 72000000,
-            });
-
-            assertByteBufferEqualToFloats(output2.getBytes(), epsilon, new float[] {
-                    18,    18,    18,    18,
-                    180,   180,   180,   180,
-                    1800,  1800,  1800,  1800,
-                    18000, 18000, 18000, 18000
+            assertByteBufferEqualToFloats(output.getBytes(), epsilon, new float[] {
+                    2, 2, 4, 4
             });
 
         } catch (IOException e) {
@@ -490,18 +487,12 @@ public class SavedModelBundleTest {
         }
     }
 
-    // Int32 and Int64 Tests
-    // Uses the same graph as the 1_in_1_out_number_test but with int32 data types
-
-    // This graph takes and produces int32s but they are cast to float32s for the internal ops
-    // The current tensorflow build doesn't fully support int32 data types for all ops
-
     @Test
-    public void testInt32Model() {
+    public void test1x1VectorsModelWithArrays() {
         try {
             // Prepare Model
 
-            File tioBundle = bundleForFile("int32io_test.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_vectors_test.tiobundle");
             assertNotNull(tioBundle);
 
             File modelDir = new File(tioBundle, "predict");
@@ -509,13 +500,16 @@ public class SavedModelBundleTest {
             SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
             assertNotNull(model);
 
-            // Prepare Inputs
+            // Prepare Inputs from part of an array
 
-            Tensor input = new Tensor(DataType.INT32, new int[]{1}, false, "input", byteBufferWithInts(new int[]{2}));
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,4}, false,"input");
+            input.write(new float[] {
+                    0, 1, 2, 3, 4
+            }, 1, 4);
 
             // Prepare Outputs
 
-            Tensor output = new Tensor(DataType.INT32, new int[]{1}, false, "output");
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "output");
 
             // Run Model
 
@@ -524,10 +518,25 @@ public class SavedModelBundleTest {
 
             model.run(inputs, outputs);
 
-            // Read Output
+            // Read Output into an array and through a view
 
-            ByteBuffer out = output.getBytes();
-            assertEquals(out.getInt(), 25);
+            float[] values = new float[4];
+            output.read(values, 0, 4);
+
+            assertArrayEquals(values, new float[] {
+                    2, 2, 4, 4
+            }, epsilon);
+
+            assertEquals(output.asFloatBuffer().get(2), 4, epsilon);
+
+            // Writing through an input's view changes its values in place
+
+            input.asFloatBuffer().put(0, 5);
+
+            input.read(values, 0, 4);
+            assertArrayEquals(values, new float[] {
+                    5, 2, 3, 4
+            }, epsilon);
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -535,15 +544,12 @@ public class SavedModelBundleTest {
         }
     }
 
-    // This graph takes and produces int64s but they are cast to float32s for the internal ops
-    // The current tensorflow build doesn't fully support int64s data types for all ops
-
     @Test
-    public void testInt64Model() {
+    public void test1x1VectorsModelDiscoversOutputShape() {
         try {
             // Prepare Model
 
-            File tioBundle = bundleForFile("int64io_test.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_vectors_test.tiobundle");
             assertNotNull(tioBundle);
 
             File modelDir = new File(tioBundle, "predict");
@@ -553,38 +559,133 @@ public class SavedModelBundleTest {
 
             // Prepare Inputs
 
-            Tensor input = new Tensor(DataType.INT64, new int[]{1}, false, "input", byteBufferWithLongs(new long[]{2}));
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,4}, false,"input");
+            input.write(new float[] {
+                    1, 2, 3, 4
+            }, 0, 4);
 
-            // Prepare Outputs
+            // Prepare Outputs, one without a type or shape and one with the wrong shape
 
-            Tensor output = new Tensor(DataType.INT64, new int[]{1}, false, "output");
+            Tensor unknown = new Tensor("output");
+            assertNull(unknown.getDataType());
+            assertNull(unknown.getShape());
+
+            Tensor misshapen = new Tensor(DataType.FLOAT32, new int[]{4}, false, "output");
 
             // Run Model
 
-            Tensor[] inputs = {input};
-            Tensor[] outputs = {output};
+            model.run(new Tensor[]{input}, new Tensor[]{unknown});
+            model.run(new Tensor[]{input}, new Tensor[]{misshapen});
 
-            model.run(inputs, outputs);
+            // Outputs take on the model's type and shape
 
-            // Read Output
+            assertEquals(unknown.getDataType(), DataType.FLOAT32);
+            assertArrayEquals(unknown.getShape(), new int[]{1,4});
+            assertEquals(unknown.count(), 4);
+            assertEquals(unknown.size(), 16);
+            assertArrayEquals(misshapen.getShape(), new int[]{1,4});
 
-            ByteBuffer out = output.getBytes();
-            assertEquals(out.getLong(), 25);
+            float[] values = new float[4];
+            unknown.read(values, 0, 4);
+
+            assertArrayEquals(values, new float[] {
+                    2, 2, 4, 4
+            }, epsilon);
+
+            // The shape is unchanged by another run with the same output shape
+
+            int[] shape = unknown.getShape();
+            model.run(new Tensor[]{input}, new Tensor[]{unknown});
+            assertSame(shape, unknown.getShape());
 
         } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testReducedPrecisionTensors() {
+        try {
+            float[] values = {0.5f, -2, 1024, 3.25f};
+            float[] read = new float[4];
+
+            // Floats are converted to and from each type and are exact for these values
+
+            for (DataType dtype : new DataType[]{DataType.FLOAT16, DataType.BFLOAT16, DataType.FLOAT64}) {
+                Tensor tensor = new Tensor(dtype, new int[]{4}, false, "values");
+                tensor.write(values, 0, 4);
+                tensor.read(read, 0, 4);
+
+                assertArrayEquals(read, values, 0);
+                assertEquals(tensor.size(), 4 * dtype.byteSize());
+
+                tensor.close();
+            }
+
+            // Half precision rounds to 11 significant bits
+
+            Tensor half = new Tensor(DataType.FLOAT16, new int[]{1}, false, "half");
+            half.write(new float[]{1.0001f}, 0, 1);
+            half.read(read, 0, 1);
+            assertEquals(read[0], 1.0f, 0);
+
+            // Other types are copied directly
+
+            Tensor bools = new Tensor(DataType.BOOL, new int[]{3}, false, "bools");
+            bools.write(new boolean[]{true, false, true}, 0, 3);
+
+            boolean[] readBools = new boolean[3];
+            bools.read(readBools, 0, 3);
+            assertArrayEquals(readBools, new boolean[]{true, false, true});
+
+            Tensor shorts = new Tensor(DataType.INT16, new int[]{2}, false, "shorts");
+            shorts.write(new short[]{-7, 300}, 0, 2);
+            assertEquals(shorts.getBytes().getShort(2), 300);
+
+            Tensor bytes = new Tensor(DataType.INT8, new int[]{2}, false, "bytes");
+            bytes.write(new byte[]{-1, 1}, 0, 2);
+            assertEquals(bytes.getBytes().get(0), -1);
+
+        } catch (Exception e) {
             e.printStackTrace();
             fail();
         }
     }
 
-    // Real World Tests
+    @Test
+    public void testStringTensor() {
+        try {
+            String[] strings = {"hello", "", "caf\u00e9 \ud83d\ude00", "world"};
+
+            Tensor tensor = new Tensor(DataType.STRING, new int[]{2,2}, false, "strings");
+            tensor.writeStrings(strings);
+
+            assertArrayEquals(tensor.readStrings(), strings);
+            assertEquals(tensor.readStringBytes()[2].length, "caf\u00e9 \ud83d\ude00".getBytes(StandardCharsets.UTF_8).length);
+
+            // Every element is written
+
+            try {
+                tensor.writeStrings(new String[]{"too", "few"});
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            tensor.close();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
 
     @Test
-    public void testCatsVsDogsPredict() {
+    public void testWrappedInputBuffer() {
         try {
             // Prepare Model
 
-            File tioBundle = bundleForFile("cats-vs-dogs-predict.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_vectors_test.tiobundle");
             assertNotNull(tioBundle);
 
             File modelDir = new File(tioBundle, "predict");
@@ -592,16 +693,18 @@ public class SavedModelBundleTest {
             SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
             assertNotNull(model);
 
-            // Prepare Input
+            // Prepare Inputs
 
-            InputStream stream = testContext.getAssets().open("cat.jpg");
-            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+            ByteBuffer buffer = byteBufferWithFloats(new float[] {
+                    1, 2, 3, 4
+            });
 
-            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,4}, false,"input");
+            input.wrapBytes(buffer);
 
-            // Prepare output
+            // Prepare Outputs
 
-            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "sigmoid");
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "output");
 
             // Run Model
 
@@ -612,92 +715,1465 @@ public class SavedModelBundleTest {
 
             // Read Output
 
-            float sigmoid = output.getBytes().getFloat();
-            assertTrue(sigmoid < 0.5);
+            assertByteBufferEqualToFloats(output.getBytes(), epsilon, new float[] {
+                    2, 2, 4, 4
+            });
 
         } catch (IOException e) {
+            e.printStackTrace();
             fail();
         }
     }
 
     @Test
-    public void testCatsVsDogsTrain() {
+    public void testPreallocatedOutputBuffer() {
         try {
             // Prepare Model
 
-            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_vectors_test.tiobundle");
             assertNotNull(tioBundle);
 
-            File modelDir = new File(tioBundle, "train");
+            File modelDir = new File(tioBundle, "predict");
 
-            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Train);
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
             assertNotNull(model);
 
-            // Prepare Input
-
-            InputStream stream = testContext.getAssets().open("cat.jpg");
-            Bitmap bitmap = BitmapFactory.decodeStream(stream);
-
-            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
-
-            // Prepare Label
+            // Prepare Inputs
 
-            Tensor labels = new Tensor(DataType.INT32, new int[]{1,1}, false, "labels", byteBufferWithInts(new int[]{
-                    0
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,4}, false,"input", byteBufferWithFloats(new float[] {
+                    1, 2, 3, 4
             }));
 
-            // Prepare Output
+            // Prepare Outputs
 
-            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false, "sigmoid_cross_entropy_loss/value");
+            ByteBuffer destination = ByteBuffer.allocateDirect(4 * 4);
+            destination.order(ByteOrder.nativeOrder());
 
-            // Run Training
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "output");
+            boolean wrapped = output.wrapBytes(destination);
 
-            String[] trainingOps = {"train"};
-            Tensor[] inputs = {input, labels};
-            Tensor[] outputs = {output};
+            // Run Model
 
-            float[] losses = new float[4];
-            int epochs = 4;
+            Tensor[] inputs = {input};
+            Tensor[] outputs = {output};
 
-            for (int epoch = 0; epoch < epochs; epoch++) {
-                model.train(inputs, outputs, trainingOps);
+            for (int i = 0; i < 2; i++) {
+                model.run(inputs, outputs);
 
                 // Read Output
 
-                float loss = output.getBytes().getFloat();
-                losses[epoch] = loss;;
-            }
+                assertByteBufferEqualToFloats(output.getBytes(), epsilon, new float[] {
+                        2, 2, 4, 4
+                });
 
-            assertNotEquals(losses[0], losses[1]);
-            assertNotEquals(losses[1], losses[2]);
-            assertNotEquals(losses[2], losses[3]);
+                if (wrapped) {
+                    assertByteBufferEqualToFloats(destination, epsilon, new float[] {
+                            2, 2, 4, 4
+                    });
+                    destination.rewind();
+                }
+            }
 
         } catch (IOException e) {
+            e.printStackTrace();
             fail();
         }
     }
 
     @Test
-    public void textExportModel() {
+    public void testModelCache() {
         try {
-            // Prepare Model
-
-            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            File tioBundle = bundleForFile("1_in_1_out_number_test.tiobundle");
             assertNotNull(tioBundle);
 
-            File modelDir = new File(tioBundle, "train");
+            File modelDir = new File(tioBundle, "predict");
 
-            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Train);
-            assertNotNull(model);
+            // Leases on the same model share it
 
-            // Prepare Input
+            ModelCache cache = new ModelCache(0);
 
-            InputStream stream = testContext.getAssets().open("cat.jpg");
-            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+            ModelCache.Lease lease1 = cache.acquire(modelDir, Mode.Serve);
+            ModelCache.Lease lease2 = cache.acquire(modelDir, Mode.Serve);
 
-            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1, 128, 128, 3}, false, "image", byteBufferWithBitmap(bitmap));
+            assertSame(lease1.getBundle(), lease2.getBundle());
+            assertEquals(cache.size(), 1);
 
-            // Prepare Label
+            // Models in use are not evicted, even over budget
+
+            lease1.close();
+            assertEquals(cache.size(), 1);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false,"output");
+
+            lease2.getBundle().run(new Tensor[]{input}, new Tensor[]{output});
+            assertEquals(output.getBytes().getFloat(), 25, epsilon);
+
+            // Idle models over budget are evicted
+
+            lease2.close();
+            assertEquals(cache.size(), 0);
+            assertEquals(cache.getUsedBytes(), 0);
+
+            cache.close();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testServingHandleSwap() {
+        try {
+            File tioBundle = bundleForFile("1_in_1_out_number_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false,"output");
+
+            Tensor[] inputs = {input};
+            Tensor[] outputs = {output};
+
+            SavedModelBundle first = new SavedModelBundle(modelDir, Mode.Serve);
+            SavedModelBundle second = new SavedModelBundle(modelDir, Mode.Serve);
+
+            ServingHandle handle = new ServingHandle(first);
+
+            // A request in flight keeps running on the model it started with
+
+            ServingHandle.Lease inFlight = handle.acquire();
+            handle.swap(second);
+
+            assertSame(inFlight.getBundle(), first);
+
+            inFlight.getBundle().run(inputs, outputs);
+            assertEquals(output.getBytes().getFloat(), 25, epsilon);
+
+            inFlight.close();
+
+            // New requests run on the replacement
+
+            try (ServingHandle.Lease lease = handle.acquire()) {
+                assertSame(lease.getBundle(), second);
+            }
+
+            handle.run(inputs, outputs);
+            assertEquals(output.getBytes().getFloat(), 25, epsilon);
+
+            handle.close();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testConcurrentRunAndClose() {
+        try {
+            File tioBundle = bundleForFile("1_in_1_out_number_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+            final SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+
+            // Runs on many threads proceed in parallel until the model is closed
+
+            Thread[] threads = new Thread[4];
+            final int[] completed = new int[threads.length];
+
+            for (int t = 0; t < threads.length; t++) {
+                final int index = t;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Tensor input = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
+                        Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false,"output");
+
+                        try {
+                            while (true) {
+                                model.run(new Tensor[]{input}, new Tensor[]{output});
+                                completed[index]++;
+                            }
+                        } catch (IllegalStateException e) {
+                            // The model was closed
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+
+            Thread.sleep(100);
+
+            model.close();
+            model.close();
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            for (int count : completed) {
+                assertTrue(count > 0);
+            }
+
+            // Closed tensors are rejected rather than freed twice
+
+            Tensor tensor = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
+            tensor.close();
+            tensor.close();
+
+            try {
+                tensor.getBytes();
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testNativeMemoryStats() {
+        try {
+            File tioBundle = bundleForFile("1_in_1_out_number_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            // Tensors leaked by other tests may be collected at any time, so counts are only
+            // compared across this test's own allocations and frees
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertTrue(NativeMemoryStats.getLiveModelCount() >= 1);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1}, false, "input", byteBufferWithFloats(new float[]{2}));
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false,"output");
+
+            for (int i = 0; i < 10; i++) {
+                model.run(new Tensor[]{input}, new Tensor[]{output});
+            }
+
+            long models = NativeMemoryStats.getLiveModelCount();
+            long tensors = NativeMemoryStats.getLiveTensorCount();
+            long bytes = NativeMemoryStats.getLiveTensorBytes();
+
+            assertTrue(tensors >= 2);
+            assertTrue(bytes >= 8);
+            assertTrue(NativeMemoryStats.getPeakTensorBytes() >= bytes);
+
+            // Closing frees the tensors and model exactly once
+
+            input.close();
+            output.close();
+            model.close();
+            model.close();
+
+            assertTrue(NativeMemoryStats.getLiveTensorCount() <= tensors - 2);
+            assertTrue(NativeMemoryStats.getLiveTensorBytes() <= bytes - 8);
+            assertTrue(NativeMemoryStats.getLiveModelCount() <= models - 1);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testBytesOutliveTensor() {
+        try {
+            Tensor tensor = new Tensor(DataType.FLOAT32, new int[]{4}, false, "input", byteBufferWithFloats(new float[]{1, 2, 3, 4}));
+            FloatBuffer view = tensor.asFloatBuffer();
+
+            // The view keeps the tensor's memory alive after the tensor is closed
+
+            tensor.close();
+            System.gc();
+
+            assertEquals(view.get(3), 4, epsilon);
+
+            // A tensor whose handle is taken must be closed by its owner
+
+            Tensor exposed = new Tensor(DataType.FLOAT32, new int[]{4}, false, "input", byteBufferWithFloats(new float[]{1, 2, 3, 4}));
+            assertNotEquals(exposed.getNativeHandle(), 0);
+            exposed.close();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testTensorPool() {
+        try {
+            // The first tensor of a shape allocates and later ones reuse its memory
+
+            Tensor first = new Tensor(DataType.FLOAT32, new int[]{3,5,7}, false, "pooled");
+            first.preallocate();
+            first.close();
+
+            long misses = TensorPool.getMissCount();
+            long hits = TensorPool.getHitCount();
+
+            for (int i = 0; i < 10; i++) {
+                Tensor tensor = new Tensor(DataType.FLOAT32, new int[]{3,5,7}, false, "pooled");
+                tensor.preallocate();
+                tensor.close();
+            }
+
+            assertEquals(TensorPool.getMissCount(), misses);
+            assertEquals(TensorPool.getHitCount(), hits + 10);
+            assertTrue(TensorPool.getPooledBytes() >= 3 * 5 * 7 * 4);
+
+            // Cleared memory is allocated again
+
+            TensorPool.clear();
+
+            Tensor tensor = new Tensor(DataType.FLOAT32, new int[]{3,5,7}, false, "pooled");
+            tensor.preallocate();
+            tensor.close();
+
+            assertEquals(TensorPool.getMissCount(), misses + 1);
+
+            // A maximum of zero empties the pool and disables it, including thread caches
+
+            long max = TensorPool.getMaxBytes();
+            TensorPool.setMaxBytes(0);
+            assertEquals(TensorPool.getPooledBytes(), 0);
+
+            for (int i = 0; i < 2; i++) {
+                Tensor unpooled = new Tensor(DataType.FLOAT32, new int[]{3,5,7}, false, "pooled");
+                unpooled.preallocate();
+                unpooled.close();
+            }
+
+            assertEquals(TensorPool.getMissCount(), misses + 3);
+            assertEquals(TensorPool.getPooledBytes(), 0);
+
+            TensorPool.setMaxBytes(max);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testExtractBundle() {
+        try {
+            File dir = new File(testContext.getFilesDir(), "models");
+            File tioBundle = new File(dir, "1_in_1_out_number_test.tiobundle");
+
+            AndroidAssets.extractBundle(testContext, "1_in_1_out_number_test.tiobundle", tioBundle);
+
+            File manifest = new File(tioBundle, AndroidAssets.MANIFEST_FILENAME);
+            File graph = new File(tioBundle, "predict/saved_model.pb");
+
+            assertTrue(manifest.exists());
+            assertTrue(graph.exists());
+
+            // Unchanged files are not extracted again
+
+            long modified = graph.lastModified();
+            AndroidAssets.extractBundle(testContext, "1_in_1_out_number_test.tiobundle", tioBundle);
+            assertEquals(graph.lastModified(), modified);
+
+            // Changed files are
+
+            assertTrue(graph.delete());
+            AndroidAssets.extractBundle(testContext, "1_in_1_out_number_test.tiobundle", tioBundle);
+            assertTrue(graph.exists());
+
+            SavedModelBundle model = new SavedModelBundle(new File(tioBundle, "predict"), Mode.Serve);
+            assertNotNull(model);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    // Multiple Input/Output Tests
+
+    @Test
+    public void test2x2VectorsModel() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("2_in_2_out_vectors_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Inputs
+
+            Tensor input1 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input1", byteBufferWithFloats(new float[] {
+                    1, 2, 3, 4
+            }));
+
+            Tensor input2 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input2", byteBufferWithFloats(new float[] {
+                    10, 20, 30, 40
+            }));
+
+            // Prepare Outputs
+
+            Tensor output1 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output1");
+            Tensor output2 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output2");
+
+            // Run Model
+
+            Tensor[] inputs = {input1, input2};
+            Tensor[] outputs = {output1, output2};
+
+            model.run(inputs, outputs);
+
+            // Read Output
+
+            ByteBuffer out1 = output1.getBytes();
+            assertEquals(out1.getFloat(), 240, epsilon);
+
+            ByteBuffer out2 = output2.getBytes();
+            assertEquals(out2.getFloat(), 64, epsilon);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test2x2MatricesModel() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("2_in_2_out_matrices_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Inputs
+
+            Tensor input1 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "input1", byteBufferWithFloats(new float[]{
+                    1,    2,    3,    4,
+                    10,   20,   30,   40,
+                    100,  200,  300,  400,
+                    1000, 2000, 3000, 4000
+            }));
+
+            Tensor input2 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "input2", byteBufferWithFloats(new float[] {
+                    5,    6,    7,    8,
+                    50,   60,   70,   80,
+                    500,  600,  700,  800,
+                    5000, 6000, 7000, 8000
+            }));
+
+            // Prepare Outputs
+
+            Tensor output1 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "output1");
+            Tensor output2 = new Tensor(DataType.FLOAT32, new int[]{4,4}, false, "output2");
+
+            // Run Model
+
+            Tensor[] inputs = {input1, input2};
+            Tensor[] outputs = {output1, output2};
+
+            model.run(inputs, outputs);
+
+            // Read Output
+
+            assertByteBufferEqualToFloats(output1.getBytes(), epsilon, new float[] {
+                    56,       72,       56,       72,
+                    5600,     7200,     5600,     7200,
+                    560000,   720000,   560000,   720000,
+                    56000000, 72000000, 56000000, 72000000,
+            });
+
+            assertByteBufferEqualToFloats(output2.getBytes(), epsilon, new float[] {
+                    18,    18,    18,    18,
+                    180,   180,   180,   180,
+                    1800,  1800,  1800,  1800,
+                    18000, 18000, 18000, 18000
+            });
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testPrepared2x2VectorsModel() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("2_in_2_out_vectors_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            PreparedRun run = model.prepare(new String[]{"input1", "input2"}, new String[]{"output1", "output2"}, null);
+            assertNotNull(run);
+
+            // Prepare Inputs
+
+            Tensor input1 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input1", byteBufferWithFloats(new float[] {
+                    1, 2, 3, 4
+            }));
+
+            Tensor input2 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input2", byteBufferWithFloats(new float[] {
+                    10, 20, 30, 40
+            }));
+
+            // Prepare Outputs
+
+            Tensor output1 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output1");
+            Tensor output2 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output2");
+
+            // Run Model
+
+            Tensor[] inputs = {input1, input2};
+            Tensor[] outputs = {output1, output2};
+
+            for (int i = 0; i < 2; i++) {
+                run.run(inputs, outputs);
+
+                // Read Output
+
+                ByteBuffer out1 = output1.getBytes();
+                assertEquals(out1.getFloat(), 240, epsilon);
+
+                ByteBuffer out2 = output2.getBytes();
+                assertEquals(out2.getFloat(), 64, epsilon);
+            }
+
+            run.close();
+            model.close();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /** Measures the per call overhead of each run variant on a small model with several inputs */
+
+    @Test
+    public void testRunOverheadBenchmark() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("2_in_2_out_vectors_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Inputs
+
+            Tensor input1 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input1", byteBufferWithFloats(new float[] {
+                    1, 2, 3, 4
+            }));
+
+            Tensor input2 = new Tensor(DataType.FLOAT32, new int[]{1,4}, false, "input2", byteBufferWithFloats(new float[] {
+                    10, 20, 30, 40
+            }));
+
+            // Prepare Outputs
+
+            Tensor output1 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output1");
+            Tensor output2 = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "output2");
+
+            output1.preallocate();
+            output2.preallocate();
+
+            Tensor[] inputs = {input1, input2};
+            Tensor[] outputs = {output1, output2};
+
+            long[] inputHandles = {input1.getNativeHandle(), input2.getNativeHandle()};
+            long[] inputNames = {SavedModelBundle.intern("input1"), SavedModelBundle.intern("input2")};
+            long[] outputNames = {SavedModelBundle.intern("output1"), SavedModelBundle.intern("output2")};
+
+            PreparedRun prepared = model.prepare(new String[]{"input1", "input2"}, new String[]{"output1", "output2"}, null);
+
+            // Warm Up
+
+            int iterations = 1000;
+
+            for (int i = 0; i < 100; i++) {
+                model.run(inputs, outputs);
+                model.run(inputHandles, inputNames, outputs, outputNames);
+                prepared.run(inputs, outputs);
+            }
+
+            // Measure
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < iterations; i++) {
+                model.run(inputs, outputs);
+            }
+            long tensors = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < iterations; i++) {
+                model.run(inputHandles, inputNames, outputs, outputNames);
+            }
+            long handles = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < iterations; i++) {
+                prepared.run(inputs, outputs);
+            }
+            long callable = SystemClock.elapsedRealtimeNanos() - start;
+
+            Log.i("SavedModelBundleTest", String.format("run(Tensor[]): %d ns/call, run(long[]): %d ns/call, PreparedRun: %d ns/call",
+                    tensors / iterations, handles / iterations, callable / iterations));
+
+            // Read Output
+
+            assertEquals(output1.getBytes().getFloat(), 240, epsilon);
+            assertEquals(output2.getBytes().getFloat(), 64, epsilon);
+
+            prepared.close();
+            model.close();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    // Int32 and Int64 Tests
+    // Uses the same graph as the 1_in_1_out_number_test but with int32 data types
+
+    // This graph takes and produces int32s but they are cast to float32s for the internal ops
+    // The current tensorflow build doesn't fully support int32 data types for all ops
+
+    @Test
+    public void testInt32Model() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("int32io_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Inputs
+
+            Tensor input = new Tensor(DataType.INT32, new int[]{1}, false, "input", byteBufferWithInts(new int[]{2}));
+
+            // Prepare Outputs
+
+            Tensor output = new Tensor(DataType.INT32, new int[]{1}, false, "output");
+
+            // Run Model
+
+            Tensor[] inputs = {input};
+            Tensor[] outputs = {output};
+
+            model.run(inputs, outputs);
+
+            // Read Output
+
+            ByteBuffer out = output.getBytes();
+            assertEquals(out.getInt(), 25);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    // This graph takes and produces int64s but they are cast to float32s for the internal ops
+    // The current tensorflow build doesn't fully support int64s data types for all ops
+
+    @Test
+    public void testInt64Model() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("int64io_test.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Inputs
+
+            Tensor input = new Tensor(DataType.INT64, new int[]{1}, false, "input", byteBufferWithLongs(new long[]{2}));
+
+            // Prepare Outputs
+
+            Tensor output = new Tensor(DataType.INT64, new int[]{1}, false, "output");
+
+            // Run Model
+
+            Tensor[] inputs = {input};
+            Tensor[] outputs = {output};
+
+            model.run(inputs, outputs);
+
+            // Read Output
+
+            ByteBuffer out = output.getBytes();
+            assertEquals(out.getLong(), 25);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    // Real World Tests
+
+    @Test
+    public void testCatsVsDogsPredict() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-predict.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Input
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
+
+            // Prepare output
+
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "sigmoid");
+
+            // Run Model
+
+            Tensor[] inputs = {input};
+            Tensor[] outputs = {output};
+
+            model.run(inputs, outputs);
+
+            // Read Output
+
+            float sigmoid = output.getBytes().getFloat();
+            assertTrue(sigmoid < 0.5);
+
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsPredictWithImagePreprocessor() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-predict.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Input
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+            ImagePreprocessor preprocessor = new ImagePreprocessor.Builder()
+                    .setNormalization(1.0f/255.0f, 0.0f)
+                    .build();
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image");
+            preprocessor.write(pixels, width, height, input, 0);
+
+            // Preprocessed values match those written pixel by pixel
+
+            float[] expected = new float[128*128*3];
+            ByteBuffer expectedBytes = byteBufferWithBitmap(bitmap);
+            expectedBytes.rewind();
+            expectedBytes.asFloatBuffer().get(expected);
+
+            float[] actual = new float[128*128*3];
+            input.read(actual, 0, actual.length);
+
+            assertArrayEquals(expected, actual, epsilon);
+
+            // RGBA bytes in a direct buffer give the same values
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 4);
+            bitmap.copyPixelsToBuffer(buffer);
+
+            Tensor bufferInput = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image");
+            preprocessor.write(buffer, width, height, bufferInput, 0);
+
+            float[] bufferValues = new float[128*128*3];
+            bufferInput.read(bufferValues, 0, bufferValues.length);
+
+            assertArrayEquals(expected, bufferValues, epsilon);
+
+            // Run Model
+
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "sigmoid");
+            model.run(new Tensor[]{input}, new Tensor[]{output});
+            assertTrue(output.getBytes().getFloat() < 0.5);
+
+            // A larger image of a different aspect ratio is center cropped and resized
+
+            Bitmap wide = Bitmap.createScaledBitmap(bitmap, 320, 256, true);
+            int[] widePixels = new int[320 * 256];
+            wide.getPixels(widePixels, 0, 320, 0, 0, 320, 256);
+
+            ImagePreprocessor cropping = new ImagePreprocessor.Builder()
+                    .setNormalization(1.0f/255.0f, 0.0f)
+                    .setCenterCrop(true)
+                    .build();
+
+            Tensor resized = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image");
+            cropping.write(widePixels, 320, 256, resized, 0);
+
+            model.run(new Tensor[]{resized}, new Tensor[]{output});
+            assertTrue(output.getBytes().getFloat() < 0.5);
+
+            // BGR order swaps the red and blue channels
+
+            ImagePreprocessor bgr = new ImagePreprocessor.Builder()
+                    .setNormalization(1.0f/255.0f, 0.0f)
+                    .setChannelOrder(ImagePreprocessor.ChannelOrder.BGR)
+                    .build();
+
+            Tensor swapped = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image");
+            bgr.write(pixels, width, height, swapped, 0);
+
+            float[] swappedValues = new float[128*128*3];
+            swapped.read(swappedValues, 0, swappedValues.length);
+
+            for (int i = 0; i < swappedValues.length; i += 3) {
+                assertEquals(expected[i], swappedValues[i+2], epsilon);
+                assertEquals(expected[i+1], swappedValues[i+1], epsilon);
+                assertEquals(expected[i+2], swappedValues[i], epsilon);
+            }
+
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsPredictBySignature() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-predict.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Read Signature
+
+            Signature signature = model.getSignature("serving_default");
+            assertNotNull(signature);
+            assertEquals(signature.getMethodName(), "tensorflow/serving/predict");
+            assertNull(model.getSignature("missing"));
+
+            TensorSpec image = signature.getInput("image");
+            assertEquals(image.getName(), "image:0");
+            assertEquals(image.getDataType(), DataType.FLOAT32);
+            assertArrayEquals(image.getShape(), new int[]{-1,128,128,3});
+
+            TensorSpec probability = signature.getOutput("probability");
+            assertEquals(probability.getName(), "sigmoid:0");
+            assertArrayEquals(probability.getShape(), new int[]{-1,1});
+
+            assertEquals(signature.getOutput("class").getDataType(), DataType.INT32);
+            assertTrue(image.isRankKnown());
+
+            // A spec of unknown rank stays distinct from a scalar and cannot create tensors
+
+            TensorSpec unknown = new TensorSpec("unknown:0", DataType.FLOAT32, null, true);
+            assertFalse(unknown.isRankKnown());
+            assertFalse(unknown.isScalar());
+            assertNotEquals(unknown, new TensorSpec("unknown:0", DataType.FLOAT32, new int[0], false));
+
+            try {
+                new TensorSpec("empty:0", DataType.FLOAT32, new int[0], true);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            try {
+                unknown.newTensor();
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+
+            // Prepare Input from its spec
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = image.newTensor(1);
+            input.setBytes(byteBufferWithBitmap(bitmap));
+
+            // Prepare Outputs, whose names are not needed
+
+            Tensor output = new Tensor("unused");
+
+            // Run Model
+
+            Map<String, Tensor> inputs = new HashMap<>();
+            inputs.put("image", input);
+
+            Map<String, Tensor> outputs = new HashMap<>();
+            outputs.put("probability", output);
+
+            model.run("serving_default", inputs, outputs);
+
+            // Read Output
+
+            assertArrayEquals(output.getShape(), new int[]{1,1});
+            assertTrue(output.getBytes().getFloat() < 0.5);
+
+            // Unknown keys are rejected
+
+            outputs.put("missing", new Tensor("missing"));
+
+            try {
+                model.run("serving_default", inputs, outputs);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsWarmup() {
+        try {
+            File tioBundle = bundleForFile("cats-vs-dogs-predict.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            // Without warm-up there are no timings
+
+            SavedModelBundle cold = new SavedModelBundle(modelDir, Mode.Serve);
+            assertEquals(cold.getWarmupTimings().length, 0);
+
+            // Warm up with the serving signature
+
+            SavedModelBundle.Options signatureOptions = new SavedModelBundle.Options.Builder()
+                    .setWarmupIterations(3)
+                    .setWarmupBatchSize(2)
+                    .build();
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve, signatureOptions);
+
+            long[] timings = model.getWarmupTimings();
+            assertEquals(timings.length, 3);
+            for (long timing : timings) {
+                assertTrue(timing > 0);
+            }
+
+            // Warm up with the specs in model.json
+
+            BundleDescriptor descriptor = BundleDescriptor.parse(tioBundle);
+
+            SavedModelBundle.Options specOptions = new SavedModelBundle.Options.Builder()
+                    .setWarmupIterations(2)
+                    .setWarmupSpecs(descriptor.getInputs(), descriptor.getOutputs())
+                    .build();
+
+            SavedModelBundle specModel = new SavedModelBundle(modelDir, Mode.Serve, specOptions);
+            assertEquals(specModel.getWarmupTimings().length, 2);
+
+            // A warmed up model runs as usual
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "sigmoid");
+
+            model.run(new Tensor[]{input}, new Tensor[]{output});
+            assertTrue(output.getBytes().getFloat() < 0.5);
+
+            // A signature that does not exist fails to load
+
+            SavedModelBundle.Options missingOptions = new SavedModelBundle.Options.Builder()
+                    .setWarmupIterations(1)
+                    .setWarmupSignature("missing")
+                    .build();
+
+            try {
+                new SavedModelBundle(modelDir, Mode.Serve, missingOptions);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            // Negative iterations and non-positive batch sizes are rejected
+
+            try {
+                new SavedModelBundle.Options.Builder().setWarmupIterations(-1);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            try {
+                new SavedModelBundle.Options.Builder().setWarmupBatchSize(0);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            cold.close();
+            model.close();
+            specModel.close();
+
+        } catch (Exception e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsAsyncPredict() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-predict.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            // Prepare Input
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
+
+            // Prepare output
+
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "sigmoid");
+
+            // Run Model
+
+            Future<Tensor[]> future = model.runAsync(new Tensor[]{input}, new Tensor[]{output});
+
+            // Read Output
+
+            Tensor[] outputs = future.get();
+            float sigmoid = outputs[0].getBytes().getFloat();
+            assertTrue(sigmoid < 0.5);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsBatchedPredict() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-predict.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "predict");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Serve);
+            assertNotNull(model);
+
+            BatchingRunner runner = new BatchingRunner(model, 4, 10000);
+
+            // Prepare Input
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            // Submit Requests
+
+            int requests = 4;
+            Tensor[] outputs = new Tensor[requests];
+            @SuppressWarnings("unchecked")
+            Future<Tensor[]>[] futures = new Future[requests];
+
+            for (int i = 0; i < requests; i++) {
+                Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
+                outputs[i] = new Tensor(DataType.FLOAT32, new int[]{1,1}, false, "sigmoid");
+                futures[i] = runner.run(new Tensor[]{input}, new Tensor[]{outputs[i]});
+            }
+
+            // Read Outputs
+
+            for (int i = 0; i < requests; i++) {
+                futures[i].get();
+                float sigmoid = outputs[i].getBytes().getFloat();
+                assertTrue(sigmoid < 0.5);
+            }
+
+            runner.close();
+
+            // A closed runner rejects requests
+
+            try {
+                runner.run(new Tensor[]{}, new Tensor[]{});
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+
+            // The maximum batch size must be positive
+
+            try {
+                new BatchingRunner(model, 0, 10000);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsTrain() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "train");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Train);
+            assertNotNull(model);
+
+            // Prepare Input
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
+
+            // Prepare Label
+
+            Tensor labels = new Tensor(DataType.INT32, new int[]{1,1}, false, "labels", byteBufferWithInts(new int[]{
+                    0
+            }));
+
+            // Prepare Output
+
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false, "sigmoid_cross_entropy_loss/value");
+
+            // Run Training
+
+            String[] trainingOps = {"train"};
+            Tensor[] inputs = {input, labels};
+            Tensor[] outputs = {output};
+
+            float[] losses = new float[4];
+            int epochs = 4;
+
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                model.train(inputs, outputs, trainingOps);
+
+                // Read Output
+
+                float loss = output.getBytes().getFloat();
+                losses[epoch] = loss;;
+            }
+
+            assertNotEquals(losses[0], losses[1]);
+            assertNotEquals(losses[1], losses[2]);
+            assertNotEquals(losses[2], losses[3]);
+
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsTrainFetchAfterUpdate() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "train");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Train);
+            assertNotNull(model);
+
+            // Prepare Input
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image", byteBufferWithBitmap(bitmap));
+
+            // Prepare Label
+
+            Tensor labels = new Tensor(DataType.INT32, new int[]{1,1}, false, "labels", byteBufferWithInts(new int[]{
+                    0
+            }));
+
+            // Prepare Output
+
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false, "sigmoid_cross_entropy_loss/value");
+
+            // Run Training
+
+            String[] trainingOps = {"train"};
+            Tensor[] inputs = {input, labels};
+            Tensor[] outputs = {output};
+
+            float[] losses = new float[4];
+            int epochs = 4;
+
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                model.train(inputs, outputs, trainingOps, true);
+
+                // Read Output
+
+                float loss = output.getBytes().getFloat();
+                losses[epoch] = loss;
+            }
+
+            assertNotEquals(losses[0], losses[1]);
+            assertNotEquals(losses[1], losses[2]);
+            assertNotEquals(losses[2], losses[3]);
+
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsTrainWithDescriptor() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            assertNotNull(tioBundle);
+
+            BundleDescriptor descriptor = BundleDescriptor.parse(tioBundle);
+
+            assertEquals(descriptor.getInputs().size(), 2);
+            assertEquals(descriptor.getInput("labels").getDataType(), DataType.INT32);
+            assertArrayEquals(descriptor.getInput("image").getShape(), new int[]{-1,128,128,3});
+            assertEquals(descriptor.getTrainOps().size(), 1);
+            assertEquals(descriptor.getModeDir(Mode.Train).getName(), "train-lisi");
+
+            try {
+                descriptor.getModeDir(Mode.Serve);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            SavedModelBundle model = new SavedModelBundle(descriptor.getModeDir(Mode.Train), Mode.Train);
+            assertNotNull(model);
+
+            // Prepare Inputs and Outputs
+
+            Tensor[] inputs = descriptor.newInputTensors(1);
+            Tensor[] outputs = descriptor.newOutputTensors(1);
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            inputs[0].setBytes(byteBufferWithBitmap(bitmap));
+            inputs[1].setBytes(byteBufferWithInts(new int[]{0}));
+
+            // Run Training
+
+            String[] trainingOps = descriptor.getTrainOps().toArray(new String[0]);
+
+            model.train(inputs, outputs, trainingOps);
+            float loss1 = outputs[0].getBytes().getFloat();
+
+            model.train(inputs, outputs, trainingOps);
+            float loss2 = outputs[0].getBytes().getFloat();
+
+            assertNotEquals(loss1, loss2);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testCatsVsDogsTrainSteps() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "train");
+
+            final SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Train);
+            assertNotNull(model);
+
+            // Prepare Batch Source
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            final ByteBuffer image = byteBufferWithBitmap(bitmap);
+            final ByteBuffer label = byteBufferWithInts(new int[]{0});
+
+            final Tensor[] inputs = {
+                    new Tensor(DataType.FLOAT32, new int[]{1,128,128,3}, false, "image"),
+                    new Tensor(DataType.INT32, new int[]{1,1}, false, "labels")
+            };
+
+            BatchSource source = new BatchSource() {
+                @Override
+                public Tensor[] getInputs() {
+                    return inputs;
+                }
+
+                @Override
+                public String getLossName() {
+                    return "sigmoid_cross_entropy_loss/value";
+                }
+
+                @Override
+                public boolean nextBatch(int step) {
+                    inputs[0].setBytes(image);
+                    inputs[1].setBytes(label);
+
+                    if (step == 5) {
+                        model.cancelTraining();
+                    }
+                    return true;
+                }
+            };
+
+            // Run Training
+
+            String[] trainingOps = {"train"};
+            float[] losses = model.trainSteps(source, 4, trainingOps);
+
+            assertEquals(losses.length, 4);
+            assertNotEquals(losses[0], losses[1]);
+            assertNotEquals(losses[1], losses[2]);
+            assertNotEquals(losses[2], losses[3]);
+
+            // Cancelling stops the loop after the step in progress
+
+            losses = model.trainSteps(source, 10, trainingOps);
+            assertEquals(losses.length, 6);
+
+            // A source that runs out ends an effectively unbounded loop
+
+            BatchSource finite = new BatchSource() {
+                @Override
+                public Tensor[] getInputs() {
+                    return inputs;
+                }
+
+                @Override
+                public String getLossName() {
+                    return "sigmoid_cross_entropy_loss/value";
+                }
+
+                @Override
+                public boolean nextBatch(int step) {
+                    inputs[0].setBytes(image);
+                    inputs[1].setBytes(label);
+                    return step < 3;
+                }
+            };
+
+            losses = model.trainSteps(finite, Integer.MAX_VALUE, trainingOps);
+            assertEquals(losses.length, 3);
+
+            try {
+                model.trainSteps(finite, -1, trainingOps);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void textExportModel() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "train");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Train);
+            assertNotNull(model);
+
+            // Prepare Input
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1, 128, 128, 3}, false, "image", byteBufferWithBitmap(bitmap));
+
+            // Prepare Label
 
             Tensor labels = new Tensor(DataType.INT32, new int[]{1, 1}, false, "labels", byteBufferWithInts(new int[]{
                     0
@@ -733,6 +2209,153 @@ public class SavedModelBundleTest {
         }
     }
 
+    @Test
+    public void testRestoreModel() {
+        try {
+            // Prepare Models
+
+            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "train");
+
+            SavedModelBundle trained = new SavedModelBundle(modelDir, Mode.Train);
+            SavedModelBundle restored = new SavedModelBundle(modelDir, Mode.Train);
+
+            // Prepare Inputs and Outputs
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1, 128, 128, 3}, false, "image", byteBufferWithBitmap(bitmap));
+            Tensor labels = new Tensor(DataType.INT32, new int[]{1, 1}, false, "labels", byteBufferWithInts(new int[]{
+                    0
+            }));
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false, "sigmoid_cross_entropy_loss/value");
+
+            String[] trainingOps = {"train"};
+            Tensor[] inputs = {input, labels};
+            Tensor[] outputs = {output};
+
+            // Train one model and export it
+
+            for (int epoch = 0; epoch < 4; epoch++) {
+                trained.train(inputs, outputs, trainingOps);
+            }
+
+            File exportDir = exportForFile("cats-vs-dogs-restore");
+            trained.export(exportDir);
+
+            trained.run(inputs, outputs);
+            float trainedLoss = output.getBytes().getFloat();
+
+            // Restore the other model in place, which then computes the same loss
+
+            restored.run(inputs, outputs);
+            float initialLoss = output.getBytes().getFloat();
+
+            restored.restore(exportDir);
+
+            restored.run(inputs, outputs);
+            float restoredLoss = output.getBytes().getFloat();
+
+            assertNotEquals(initialLoss, trainedLoss);
+            assertEquals(restoredLoss, trainedLoss, 0.0001f);
+
+        } catch (Exception e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testExportModelAsync() {
+        try {
+            // Prepare Model
+
+            File tioBundle = bundleForFile("cats-vs-dogs-train.tiobundle");
+            assertNotNull(tioBundle);
+
+            File modelDir = new File(tioBundle, "train");
+
+            SavedModelBundle model = new SavedModelBundle(modelDir, Mode.Train);
+            assertNotNull(model);
+
+            // Prepare Inputs and Outputs
+
+            InputStream stream = testContext.getAssets().open("cat.jpg");
+            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+
+            Tensor input = new Tensor(DataType.FLOAT32, new int[]{1, 128, 128, 3}, false, "image", byteBufferWithBitmap(bitmap));
+            Tensor labels = new Tensor(DataType.INT32, new int[]{1, 1}, false, "labels", byteBufferWithInts(new int[]{
+                    0
+            }));
+            Tensor output = new Tensor(DataType.FLOAT32, new int[]{1}, false, "sigmoid_cross_entropy_loss/value");
+
+            String[] trainingOps = {"train"};
+            Tensor[] inputs = {input, labels};
+            Tensor[] outputs = {output};
+
+            // Train while the previous checkpoint is written
+
+            File exportDir = exportForFile("cats-vs-dogs-async");
+
+            model.train(inputs, outputs, trainingOps);
+            Future<File> first = model.exportAsync(exportDir);
+
+            model.train(inputs, outputs, trainingOps);
+            model.train(inputs, outputs, trainingOps);
+
+            assertEquals(first.get(), exportDir);
+
+            Future<File> second = model.exportAsync(exportDir);
+            assertEquals(second.get(), exportDir);
+
+            File checkpointsIndex = new File(exportDir, SavedModelBundle.CheckpointsIndex);
+            File checkpointsData = new File(exportDir, SavedModelBundle.CheckpointsData);
+
+            assertTrue(checkpointsIndex.exists());
+            assertTrue(checkpointsData.exists());
+            assertFalse(new File(exportDir.getPath() + ".old").exists());
+
+            // Overlapping exports to the same destination each publish a complete checkpoint
+
+            Future<File> third = model.exportAsync(exportDir);
+            model.run(inputs, outputs);
+            float thirdLoss = output.getBytes().getFloat();
+
+            model.train(inputs, outputs, trainingOps);
+
+            Future<File> fourth = model.exportAsync(exportDir);
+            model.run(inputs, outputs);
+            float fourthLoss = output.getBytes().getFloat();
+
+            assertEquals(third.get(), exportDir);
+            assertEquals(fourth.get(), exportDir);
+
+            String[] leftovers = exportDir.getParentFile().list();
+            assertNotNull(leftovers);
+            for (String name : leftovers) {
+                assertFalse(name.startsWith(exportDir.getName() + ".tmp"));
+            }
+
+            // The published checkpoint loads and matches one of the exported snapshots
+
+            SavedModelBundle restored = new SavedModelBundle(modelDir, Mode.Train);
+            restored.restore(exportDir);
+
+            restored.run(inputs, outputs);
+            float restoredLoss = output.getBytes().getFloat();
+
+            assertTrue(Math.abs(restoredLoss - thirdLoss) < 0.0001f || Math.abs(restoredLoss - fourthLoss) < 0.0001f);
+
+            restored.close();
+            model.close();
+
+        } catch (Exception e) {
+            fail();
+        }
+    }
+
     // Tree Test
 
     @Test
@@ -0,0 +1,145 @@
+/*
+ * batching_runner_jni.cpp
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow on 10/18/26
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <jni.h>
+#include <android/log.h>
+
+#include <vector>
+
+#include "tensorflow/core/framework/tensor.h"
+#include "tensorflow/core/framework/tensor_util.h"
+
+#include "jni_utils.h"
+#include "tensor_jni.h"
+#include "tensor_pool.h"
+
+static tensorflow::Status ConcatPooled(const std::vector<tensorflow::Tensor> &tensors, tensorflow::Tensor *result) {
+    auto shape = tensors[0].shape();
+    tensorflow::int64 rows = 0;
+
+    for (const auto &tensor : tensors) {
+        if (tensor.dtype() != tensors[0].dtype() || tensor.dims() != shape.dims() || tensor.dims() == 0) {
+            return tensorflow::errors::InvalidArgument("Tensors to batch must have the same type and rank of at least 1");
+        }
+        for (int d = 1; d < shape.dims(); d++) {
+            if (tensor.dim_size(d) != shape.dim_size(d)) {
+                return tensorflow::errors::InvalidArgument("Tensors to batch must have the same shape after the 0th dimension");
+            }
+        }
+        rows += tensor.dim_size(0);
+    }
+
+    shape.set_dim(0, rows);
+    *result = AllocatePooledTensor(tensors[0].dtype(), shape);
+
+    char *data = const_cast<char *>(result->tensor_data().data());
+
+    for (const auto &tensor : tensors) {
+        auto bytes = tensor.tensor_data();
+        memcpy(data, bytes.data(), bytes.size());
+        data += bytes.size();
+    }
+
+    return tensorflow::Status::OK();
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_BatchingRunner_concat(JNIEnv *env, jclass clazz, jlongArray handles) {
+    jsize count = env->GetArrayLength(handles);
+    std::vector<jlong> tensor_handles(count);
+    env->GetLongArrayRegion(handles, 0, count, tensor_handles.data());
+
+    // Gather the tensors to be concatenated along their 0th dimension
+
+    std::vector<tensorflow::Tensor> tensors;
+    tensors.reserve(count);
+
+    for (auto handle : tensor_handles) {
+        auto tensor = reinterpret_cast<tensorflow::Tensor *>(handle);
+
+        if (!tensor) {
+            ThrowException(env, kIllegalArgumentException, "BatchingRunner.concat: Input has no backing tensor");
+            return 0;
+        }
+
+        tensors.push_back(*tensor);
+    }
+
+    // Concatenating along the 0th dimension of row major tensors appends their bytes, so numeric
+    // batches are copied into a pooled tensor that is reused by the next batch of the same size
+
+    auto batch = new tensorflow::Tensor();
+    tensorflow::Status status;
+
+    if (tensorflow::DataTypeCanUseMemcpy(tensors[0].dtype())) {
+        status = ConcatPooled(tensors, batch);
+    } else {
+        status = tensorflow::tensor::Concat(tensors, batch);
+    }
+
+    if (status != tensorflow::Status::OK()) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: BatchingRunner.concat: Unable to batch inputs.");
+        delete batch;
+        return 0;
+    }
+
+    return reinterpret_cast<jlong>(batch);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_BatchingRunner_split(JNIEnv *env, jclass clazz, jlong handle, jlongArray sizes, jobjectArray outputTensors) {
+    auto batch = reinterpret_cast<tensorflow::Tensor *>(handle);
+
+    jsize count = env->GetArrayLength(sizes);
+    std::vector<jlong> jsizes(count);
+    env->GetLongArrayRegion(sizes, 0, count, jsizes.data());
+
+    // Split the batch back into one tensor per request and capture each into its output
+
+    std::vector<tensorflow::int64> split_sizes(jsizes.begin(), jsizes.end());
+    std::vector<tensorflow::Tensor> splits;
+
+    tensorflow::Status status = tensorflow::tensor::Split(*batch, split_sizes, &splits);
+
+    if (status != tensorflow::Status::OK()) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: BatchingRunner.split: Unable to split outputs.");
+        return;
+    }
+
+    for (jsize i = 0; i < count; i++) {
+        jobject outputTensor = env->GetObjectArrayElement(outputTensors, i);
+        bool captured = CaptureOutput(env, outputTensor, splits[i]);
+        env->DeleteLocalRef(outputTensor);
+
+        if (!captured) {
+            return;
+        }
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_BatchingRunner_delete(JNIEnv *env, jclass clazz, jlong handle) {
+    delete reinterpret_cast<tensorflow::Tensor *>(handle);
+}
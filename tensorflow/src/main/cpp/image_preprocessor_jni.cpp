@@ -0,0 +1,223 @@
+/*
+ * image_preprocessor_jni.cpp
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow on 10/18/26
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <jni.h>
+#include <algorithm>
+#include <cstdint>
+#include <vector>
+
+#include "tensorflow/core/framework/tensor.h"
+
+#include "jni_utils.h"
+
+// Image Preprocessing
+// Pixels are read from a packed ARGB int array or a direct buffer of RGBA bytes, optionally
+// center cropped and bilinearly resized, normalized per channel and written as RGB or BGR values
+// into one image of an NHWC tensor. Loops run over contiguous output with the sampling positions
+// computed once per row and column, so that the compiler can vectorize them.
+
+namespace {
+
+struct Crop {
+    int x;
+    int y;
+    int width;
+    int height;
+};
+
+/** The bilinear sample for one output row or column: two source positions and a weight */
+
+struct Sample {
+    int first;
+    int second;
+    float weight;
+};
+
+/** The centered region of the image with the output's aspect ratio, or the whole image */
+
+Crop CropFor(int width, int height, int outWidth, int outHeight, bool centerCrop) {
+    int cropWidth = width;
+    int cropHeight = height;
+
+    if (centerCrop) {
+        int64_t scaledWidth = (int64_t) width * outHeight;
+        int64_t scaledHeight = (int64_t) height * outWidth;
+
+        if (scaledWidth > scaledHeight) {
+            cropWidth = std::max(1, (int) (scaledHeight / outHeight));
+        } else {
+            cropHeight = std::max(1, (int) (scaledWidth / outWidth));
+        }
+    }
+
+    return Crop{(width - cropWidth) / 2, (height - cropHeight) / 2, cropWidth, cropHeight};
+}
+
+/** Maps each output position to the source, aligning pixel centers */
+
+std::vector<Sample> SamplesFor(int outSize, int start, int size) {
+    std::vector<Sample> samples(outSize);
+    float step = (float) size / outSize;
+
+    for (int i = 0; i < outSize; i++) {
+        float position = std::max(0.0f, (i + 0.5f) * step - 0.5f);
+        int first = std::min((int) position, size - 1);
+        int second = std::min(first + 1, size - 1);
+        samples[i] = Sample{start + first, start + second, position - first};
+    }
+
+    return samples;
+}
+
+template <typename T>
+inline T Store(float value);
+
+template <>
+inline float Store<float>(float value) {
+    return value;
+}
+
+template <>
+inline uint8_t Store<uint8_t>(float value) {
+    return (uint8_t) (std::min(255.0f, std::max(0.0f, value)) + 0.5f);
+}
+
+/**
+ * Writes an outWidth x outHeight x 3 image. offsets are the byte offsets within a four byte pixel
+ * of each output channel, and scale and bias apply to the output channels in order.
+ */
+
+template <typename T>
+void Preprocess(const uint8_t *pixels, int width, const Crop &crop, const int offsets[3], const float scale[3], const float bias[3], T *out, int outWidth, int outHeight) {
+    const int o0 = offsets[0], o1 = offsets[1], o2 = offsets[2];
+    const float s0 = scale[0], s1 = scale[1], s2 = scale[2];
+    const float b0 = bias[0], b1 = bias[1], b2 = bias[2];
+
+    // Without resizing pixels are copied one to one
+
+    if (crop.width == outWidth && crop.height == outHeight) {
+        for (int y = 0; y < outHeight; y++) {
+            const uint8_t *row = pixels + ((size_t) (crop.y + y) * width + crop.x) * 4;
+            for (int x = 0; x < outWidth; x++, out += 3) {
+                const uint8_t *p = row + x * 4;
+                out[0] = Store<T>(p[o0] * s0 + b0);
+                out[1] = Store<T>(p[o1] * s1 + b1);
+                out[2] = Store<T>(p[o2] * s2 + b2);
+            }
+        }
+        return;
+    }
+
+    std::vector<Sample> columns = SamplesFor(outWidth, crop.x, crop.width);
+    std::vector<Sample> rows = SamplesFor(outHeight, crop.y, crop.height);
+
+    for (int y = 0; y < outHeight; y++) {
+        const uint8_t *top = pixels + (size_t) rows[y].first * width * 4;
+        const uint8_t *bottom = pixels + (size_t) rows[y].second * width * 4;
+        const float wy = rows[y].weight;
+
+        for (int x = 0; x < outWidth; x++, out += 3) {
+            const uint8_t *tl = top + columns[x].first * 4;
+            const uint8_t *tr = top + columns[x].second * 4;
+            const uint8_t *bl = bottom + columns[x].first * 4;
+            const uint8_t *br = bottom + columns[x].second * 4;
+            const float wx = columns[x].weight;
+
+            float t0 = tl[o0] + (tr[o0] - tl[o0]) * wx, u0 = bl[o0] + (br[o0] - bl[o0]) * wx;
+            float t1 = tl[o1] + (tr[o1] - tl[o1]) * wx, u1 = bl[o1] + (br[o1] - bl[o1]) * wx;
+            float t2 = tl[o2] + (tr[o2] - tl[o2]) * wx, u2 = bl[o2] + (br[o2] - bl[o2]) * wx;
+
+            out[0] = Store<T>((t0 + (u0 - t0) * wy) * s0 + b0);
+            out[1] = Store<T>((t1 + (u1 - t1) * wy) * s1 + b1);
+            out[2] = Store<T>((t2 + (u2 - t2) * wy) * s2 + b2);
+        }
+    }
+}
+
+} // namespace
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_copyFromPixels(JNIEnv *env, jobject thiz, jobject pixels, jboolean direct, jint width, jint height, jint batchIndex, jfloatArray scale, jfloatArray bias, jboolean bgr, jboolean centerCrop) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+    auto dtype = tensor->dtype();
+
+    if (tensor->dims() != 4 || tensor->dim_size(3) != 3 || batchIndex < 0 || batchIndex >= tensor->dim_size(0)
+        || (dtype != tensorflow::DT_FLOAT && dtype != tensorflow::DT_UINT8)) {
+        ThrowException(env, kIllegalArgumentException, "Tensor.copyFromPixels: Tensor is not a batch of float or uint8 RGB images");
+        return;
+    }
+
+    int outHeight = (int) tensor->dim_size(1);
+    int outWidth = (int) tensor->dim_size(2);
+    Crop crop = CropFor(width, height, outWidth, outHeight, centerCrop);
+
+    // Colors are given in R, G, B order and written in the tensor's channel order. Android is
+    // little endian, so an ARGB int is stored as the bytes B, G, R, A.
+
+    float colorScale[3];
+    float colorBias[3];
+    env->GetFloatArrayRegion(scale, 0, 3, colorScale);
+    env->GetFloatArrayRegion(bias, 0, 3, colorBias);
+
+    const int bytesRGBA[3] = {0, 1, 2};
+    const int intsARGB[3] = {2, 1, 0};
+    const int *colorOffsets = direct ? bytesRGBA : intsARGB;
+
+    int offsets[3];
+    float channelScale[3];
+    float channelBias[3];
+
+    for (int channel = 0; channel < 3; channel++) {
+        int color = bgr ? 2 - channel : channel;
+        offsets[channel] = colorOffsets[color];
+        channelScale[channel] = colorScale[color];
+        channelBias[channel] = colorBias[color];
+    }
+
+    const uint8_t *data;
+
+    if (direct) {
+        data = static_cast<const uint8_t *>(env->GetDirectBufferAddress(pixels));
+        if (!data) {
+            ThrowException(env, kIllegalArgumentException, "Tensor.copyFromPixels: Pixel buffer is not a direct buffer");
+            return;
+        }
+    } else {
+        data = static_cast<const uint8_t *>(env->GetPrimitiveArrayCritical(static_cast<jarray>(pixels), nullptr));
+        if (!data) {
+            return;
+        }
+    }
+
+    size_t imageSize = (size_t) outHeight * outWidth * 3;
+
+    if (dtype == tensorflow::DT_FLOAT) {
+        float *out = tensor->flat<float>().data() + batchIndex * imageSize;
+        Preprocess<float>(data, width, crop, offsets, channelScale, channelBias, out, outWidth, outHeight);
+    } else {
+        uint8_t *out = tensor->flat<uint8_t>().data() + batchIndex * imageSize;
+        Preprocess<uint8_t>(data, width, crop, offsets, channelScale, channelBias, out, outWidth, outHeight);
+    }
+
+    if (!direct) {
+        env->ReleasePrimitiveArrayCritical(static_cast<jarray>(pixels), const_cast<uint8_t *>(data), JNI_ABORT);
+    }
+}
@@ -22,6 +22,58 @@
 
 #include <cstdarg>
 #include <cstdlib>
+#include <mutex>
+#include <unordered_set>
+
+// Cached JNI IDs
+
+JNICache jniCache;
+
+jint JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+
+    if (vm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK) {
+        return JNI_ERR;
+    }
+
+    jclass tensorClass = env->FindClass("ai/doc/tensorflow/Tensor");
+    jclass savedModelBundleClass = env->FindClass("ai/doc/tensorflow/SavedModelBundle");
+    jclass preparedRunClass = env->FindClass("ai/doc/tensorflow/PreparedRun");
+    jclass byteArrayClass = env->FindClass("[B");
+    jclass stringClass = env->FindClass("java/lang/String");
+    jclass dataTypeClass = env->FindClass("ai/doc/tensorflow/DataType");
+
+    if (!tensorClass || !savedModelBundleClass || !preparedRunClass || !byteArrayClass || !stringClass || !dataTypeClass) {
+        return JNI_ERR;
+    }
+
+    // Classes used to create objects are held with global references for the life of the library
+
+    jniCache.byteArrayClass = static_cast<jclass>(env->NewGlobalRef(byteArrayClass));
+    jniCache.stringClass = static_cast<jclass>(env->NewGlobalRef(stringClass));
+    jniCache.dataTypeClass = static_cast<jclass>(env->NewGlobalRef(dataTypeClass));
+
+    // J is the type signature for long, Z for boolean, I for int and [I for int[]
+
+    jniCache.tensorHandle = env->GetFieldID(tensorClass, "handle", "J");
+    jniCache.tensorName = env->GetFieldID(tensorClass, "name", "Ljava/lang/String;");
+    jniCache.tensorNameHandle = env->GetFieldID(tensorClass, "nameHandle", "J");
+    jniCache.tensorIsBacked = env->GetFieldID(tensorClass, "isBacked", "Z");
+    jniCache.tensorDtype = env->GetFieldID(tensorClass, "dtype", "Lai/doc/tensorflow/DataType;");
+    jniCache.tensorShape = env->GetFieldID(tensorClass, "shape", "[I");
+    jniCache.tensorScalar = env->GetFieldID(tensorClass, "scalar", "Z");
+    jniCache.dataTypeValue = env->GetFieldID(dataTypeClass, "value", "I");
+    jniCache.dataTypeFromC = env->GetStaticMethodID(dataTypeClass, "fromC", "(I)Lai/doc/tensorflow/DataType;");
+    jniCache.savedModelBundleHandle = env->GetFieldID(savedModelBundleClass, "handle", "J");
+    jniCache.savedModelBundleTrainingCancelled = env->GetFieldID(savedModelBundleClass, "trainingCancelled", "Z");
+    jniCache.preparedRunHandle = env->GetFieldID(preparedRunClass, "handle", "J");
+
+    if (env->ExceptionCheck()) {
+        return JNI_ERR;
+    }
+
+    return JNI_VERSION_1_6;
+}
 
 // Conversion Utilities
 
@@ -34,6 +86,35 @@ std::string jstring2string(JNIEnv *env, jstring javaString) {
     return cppString;
 }
 
+std::vector<std::string> jstringArray2vector(JNIEnv *env, jobjectArray javaStrings) {
+    std::vector<std::string> cppStrings;
+
+    if (javaStrings == nullptr) {
+        return cppStrings;
+    }
+
+    jsize count = env->GetArrayLength(javaStrings);
+    cppStrings.reserve(count);
+
+    for (jsize i = 0; i < count; i++) {
+        auto javaString = (jstring) env->GetObjectArrayElement(javaStrings, i);
+        cppStrings.push_back(jstring2string(env, javaString));
+        env->DeleteLocalRef(javaString);
+    }
+
+    return cppStrings;
+}
+
+// Interned Strings
+
+const std::string *InternString(const std::string &string) {
+    static std::mutex mutex;
+    static auto strings = new std::unordered_set<std::string>();
+
+    std::lock_guard<std::mutex> lock(mutex);
+    return &*strings->insert(string).first;
+}
+
 // Exceptions
 
 const char kIllegalArgumentException[] = "java/lang/IllegalArgumentException";
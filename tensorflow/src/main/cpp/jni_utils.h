@@ -23,21 +23,64 @@
 
 #include <jni.h>
 #include <string>
+#include <vector>
+
+namespace tensorflow {
+    class Tensor;
+    struct SavedModelBundle;
+}
+
+struct PreparedRun;
+
+// Cached JNI IDs
+// Classes and field ids are looked up once when the library is loaded, see JNI_OnLoad
+
+struct JNICache {
+    jfieldID tensorHandle;
+    jfieldID tensorName;
+    jfieldID tensorNameHandle;
+    jfieldID tensorIsBacked;
+    jfieldID tensorDtype;
+    jfieldID tensorShape;
+    jfieldID tensorScalar;
+    jfieldID savedModelBundleHandle;
+    jfieldID savedModelBundleTrainingCancelled;
+    jfieldID preparedRunHandle;
+    jclass byteArrayClass;
+    jclass stringClass;
+    jclass dataTypeClass;
+    jfieldID dataTypeValue;
+    jmethodID dataTypeFromC;
+};
+
+extern JNICache jniCache;
 
 // Native Handles
 // See http://www.studiofuga.com/2017/03/10/a-c-smart-pointer-wrapper-for-use-with-jni/
+// The handle field is chosen by the native type it points to
 
-jfieldID inline getHandleField(JNIEnv *env, jobject obj)
-{
-    jclass c = env->GetObjectClass(obj);
-    // J is the type signature for long:
-    return env->GetFieldID(c, "handle", "J");
+template <typename T>
+jfieldID getHandleField();
+
+template <>
+inline jfieldID getHandleField<tensorflow::Tensor>() {
+    return jniCache.tensorHandle;
+}
+
+template <>
+inline jfieldID getHandleField<tensorflow::SavedModelBundle>() {
+    return jniCache.savedModelBundleHandle;
+}
+
+template <>
+inline jfieldID getHandleField<PreparedRun>() {
+    return jniCache.preparedRunHandle;
 }
 
 template <typename T>
 T *getHandle(JNIEnv *env, jobject obj)
 {
-    jlong handle = env->GetLongField(obj, getHandleField(env, obj));
+    jlong handle = env->GetLongField(obj, getHandleField<T>());
     return reinterpret_cast<T *>(handle);
 }
 
@@ -45,13 +88,21 @@ template <typename T>
 void setHandle(JNIEnv *env, jobject obj, T *t)
 {
     jlong handle = reinterpret_cast<jlong>(t);
-    env->SetLongField(obj, getHandleField(env, obj), handle);
+    env->SetLongField(obj, getHandleField<T>(), handle);
 }
 
 // Conversion Utilities
 
 std::string jstring2string(JNIEnv *env, jstring javaString);
 
+std::vector<std::string> jstringArray2vector(JNIEnv *env, jobjectArray javaStrings);
+
+// Interned Strings
+// Returns a pointer to a process wide copy of the string that is never freed, so that tensor names
+// can be converted from Java once and then referred to by address
+
+const std::string *InternString(const std::string &string);
+
 // Exceptions
 // See tensorflow/tflite/java
 
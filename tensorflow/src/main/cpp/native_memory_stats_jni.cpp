@@ -0,0 +1,73 @@
+/*
+ * native_memory_stats_jni.cpp
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow on 10/18/26
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "native_memory_stats_jni.h"
+
+#include <atomic>
+#include <jni.h>
+
+// Counters are updated with relaxed atomics, they are statistics and order nothing else
+
+static std::atomic<int64_t> liveTensors(0);
+static std::atomic<int64_t> liveTensorBytes(0);
+static std::atomic<int64_t> peakTensorBytes(0);
+static std::atomic<int64_t> liveModels(0);
+
+void TrackTensors(int64_t count, int64_t bytes) {
+    liveTensors.fetch_add(count, std::memory_order_relaxed);
+    int64_t live = liveTensorBytes.fetch_add(bytes, std::memory_order_relaxed) + bytes;
+
+    int64_t peak = peakTensorBytes.load(std::memory_order_relaxed);
+    while (live > peak && !peakTensorBytes.compare_exchange_weak(peak, live, std::memory_order_relaxed)) { }
+}
+
+void TrackModels(int64_t count) {
+    liveModels.fetch_add(count, std::memory_order_relaxed);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_NativeMemoryStats_getLiveTensorCount(JNIEnv *env, jclass clazz) {
+    return liveTensors.load(std::memory_order_relaxed);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_NativeMemoryStats_getLiveTensorBytes(JNIEnv *env, jclass clazz) {
+    return liveTensorBytes.load(std::memory_order_relaxed);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_NativeMemoryStats_getPeakTensorBytes(JNIEnv *env, jclass clazz) {
+    return peakTensorBytes.load(std::memory_order_relaxed);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_NativeMemoryStats_getLiveModelCount(JNIEnv *env, jclass clazz) {
+    return liveModels.load(std::memory_order_relaxed);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_NativeMemoryStats_resetPeak(JNIEnv *env, jclass clazz) {
+    peakTensorBytes.store(liveTensorBytes.load(std::memory_order_relaxed), std::memory_order_relaxed);
+}
@@ -0,0 +1,37 @@
+/*
+ * native_memory_stats_jni.h
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow on 10/18/26
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef TENSORIO_TENSORFLOW_NATIVE_MEMORY_STATS_JNI_H
+#define TENSORIO_TENSORFLOW_NATIVE_MEMORY_STATS_JNI_H
+
+#include <cstdint>
+
+/**
+ * Records a change in the tensors held by Java Tensor instances: the number of tensors and the
+ * bytes they refer to. Reported by NativeMemoryStats.
+ */
+
+void TrackTensors(int64_t count, int64_t bytes);
+
+/** Records a change in the number of loaded models */
+
+void TrackModels(int64_t count);
+
+#endif //TENSORIO_TENSORFLOW_NATIVE_MEMORY_STATS_JNI_H
@@ -0,0 +1,148 @@
+/*
+ * prepared_run_jni.cpp
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow on 10/18/26
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <jni.h>
+#include <android/log.h>
+
+#include <string>
+#include <vector>
+
+#include "tensorflow/cc/saved_model/loader.h"
+#include "tensorflow/core/public/session.h"
+
+#include "jni_utils.h"
+#include "tensor_jni.h"
+
+// A callable subgraph of a model's session with fixed feeds, fetches, and targets
+
+struct PreparedRun {
+    tensorflow::Session *session;
+    tensorflow::Session::CallableHandle callable;
+    size_t feed_count;
+    size_t fetch_count;
+};
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_PreparedRun_create(JNIEnv *env, jobject thiz, jobject bundle, jobjectArray inputNames,
+                                          jobjectArray outputNames, jobjectArray targetNames) {
+    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, bundle);
+    auto session = saved_model_bundle->session.get();
+
+    // Prepare Callable Options
+    // Feeds, fetches and targets are resolved once here rather than on every run
+
+    tensorflow::CallableOptions callable_options;
+
+    for (const auto &name : jstringArray2vector(env, inputNames)) {
+        callable_options.add_feed(name);
+    }
+    for (const auto &name : jstringArray2vector(env, outputNames)) {
+        callable_options.add_fetch(name);
+    }
+    for (const auto &name : jstringArray2vector(env, targetNames)) {
+        callable_options.add_target(name);
+    }
+
+    // Make Callable
+
+    tensorflow::Session::CallableHandle callable;
+    tensorflow::Status status = session->MakeCallable(callable_options, &callable);
+
+    if (status != tensorflow::Status::OK()) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: PreparedRun.create: Unable to prepare run.");
+        return;
+    }
+
+    auto prepared_run = new PreparedRun{session, callable,
+                                        static_cast<size_t>(callable_options.feed_size()),
+                                        static_cast<size_t>(callable_options.fetch_size())};
+
+    // JNI Memory Management
+
+    setHandle<PreparedRun>(env, thiz, prepared_run);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_PreparedRun_delete(JNIEnv *env, jobject thiz) {
+    auto prepared_run = getHandle<PreparedRun>(env, thiz);
+    tensorflow::Status status = prepared_run->session->ReleaseCallable(prepared_run->callable);
+    delete prepared_run;
+    setHandle<PreparedRun>(env, thiz, nullptr);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_PreparedRun_runCallable(JNIEnv *env, jobject thiz, jobjectArray inputTensors, jobjectArray outputTensors) {
+    auto prepared_run = getHandle<PreparedRun>(env, thiz);
+    tensorflow::Status status;
+
+    jsize inputCount = env->GetArrayLength(inputTensors);
+    jsize outputCount = env->GetArrayLength(outputTensors);
+
+    if (inputCount != prepared_run->feed_count || outputCount != prepared_run->fetch_count) {
+        ThrowException(env, kIllegalArgumentException, "PreparedRun.run: Expected %zu inputs and %zu outputs",
+                       prepared_run->feed_count, prepared_run->fetch_count);
+        return;
+    }
+
+    // Prepare Inputs
+    // Inputs are matched to feeds by position
+
+    std::vector<tensorflow::Tensor> inputs;
+    inputs.reserve(inputCount);
+
+    for (jsize i = 0; i < inputCount; i++) {
+        jobject inputTensor = env->GetObjectArrayElement(inputTensors, i);
+        auto input_tensor = getHandle<tensorflow::Tensor>(env, inputTensor);
+        if (!input_tensor) {
+            ThrowException(env, kIllegalArgumentException, "PreparedRun.run: Input %d has no backing tensor", i);
+            return;
+        }
+        inputs.push_back(*input_tensor);
+        env->DeleteLocalRef(inputTensor);
+    }
+
+    std::vector<tensorflow::Tensor> outputs;
+
+    // Run Callable
+
+    status = prepared_run->session->RunCallable(prepared_run->callable, inputs, &outputs, nullptr);
+
+    if (status != tensorflow::Status::OK()) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: PreparedRun.run: Unable to run model.");
+        return;
+    }
+
+    // Get Outputs
+
+    for (jsize i = 0; i < outputs.size(); i++) {
+        jobject outputTensor = env->GetObjectArrayElement(outputTensors, i);
+        bool captured = CaptureOutput(env, outputTensor, outputs[i]);
+        env->DeleteLocalRef(outputTensor);
+
+        if (!captured) {
+            return;
+        }
+    }
+}
@@ -21,28 +21,32 @@
 #include <jni.h>
 #include <android/log.h>
 
+#include <algorithm>
+#include <map>
 #include <string>
 #include <unordered_set>
 #include <vector>
 
 #include "tensorflow/cc/saved_model/loader.h"
 #include "tensorflow/cc/saved_model/tag_constants.h"
+#include "tensorflow/core/framework/tensor_util.h"
+#include "tensorflow/core/protobuf/rewriter_config.pb.h"
 #include "tensorflow/core/public/session.h"
+#include "tensorflow/core/util/saved_tensor_slice_util.h"
+#include "tensorflow/core/util/tensor_bundle/tensor_bundle.h"
 
 #include "jni_utils.h"
+#include "native_memory_stats_jni.h"
 #include "tensor_jni.h"
 
 // TODO: They aren't all illegal argument exceptions
 
-jobject DataType(JNIEnv *env, const char* name) {
-    jclass klass = env->FindClass("ai/doc/tensorflow/DataType");
-    jfieldID fieldId = env->GetStaticFieldID(klass, name,"Lai/doc/tensorflow/DataType;");
-    return env->GetStaticObjectField(klass, fieldId);
-}
-
 extern "C"
 JNIEXPORT void JNICALL
-Java_ai_doc_tensorflow_SavedModelBundle_create(JNIEnv *env, jobject thiz, jstring dir, jstring mode) {
+Java_ai_doc_tensorflow_SavedModelBundle_create(JNIEnv *env, jobject thiz, jstring dir, jstring mode,
+                                               jint intraOpParallelismThreads, jint interOpParallelismThreads,
+                                               jboolean usePerSessionThreads, jint optimizerLevel, jboolean constantFolding,
+                                               jboolean grappler, jboolean allowSoftPlacement) {
     auto saved_model_bundle = new tensorflow::SavedModelBundle();
     auto sDir = jstring2string(env, dir);
 
@@ -58,18 +62,47 @@ Java_ai_doc_tensorflow_SavedModelBundle_create(JNIEnv *env, jobject thiz, jstrin
     } else {
         __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "Mode must be one of 'serve' or 'train'");
         ThrowException(env, kIllegalArgumentException,"Internal error: SavedModelBundle.create: Bad mode provided.");
+        delete saved_model_bundle;
         return;
     }
 
+    // TensorFlow: Configure Session
+
     tensorflow::SessionOptions session_opts;
     tensorflow::RunOptions run_opts;
     tensorflow::Status status;
 
+    auto &config = session_opts.config;
+    config.set_intra_op_parallelism_threads(intraOpParallelismThreads);
+    config.set_inter_op_parallelism_threads(interOpParallelismThreads);
+    config.set_use_per_session_threads(usePerSessionThreads);
+    config.set_allow_soft_placement(allowSoftPlacement);
+
+    auto optimizer_options = config.mutable_graph_options()->mutable_optimizer_options();
+    optimizer_options->set_opt_level(static_cast<tensorflow::OptimizerOptions_Level>(optimizerLevel));
+    optimizer_options->set_do_constant_folding(constantFolding);
+
+    // At L1 the graph optimizer ignores do_constant_folding and always folds, so disabling folding
+    // drops to L0 and keeps L1's common subexpression elimination by enabling it explicitly
+
+    if (!constantFolding && optimizerLevel == tensorflow::OptimizerOptions::L1) {
+        optimizer_options->set_opt_level(tensorflow::OptimizerOptions::L0);
+        optimizer_options->set_do_common_subexpression_elimination(true);
+    }
+
+    auto rewrite_options = config.mutable_graph_options()->mutable_rewrite_options();
+    rewrite_options->set_disable_meta_optimizer(!grappler);
+
+    if (!constantFolding) {
+        rewrite_options->set_constant_folding(tensorflow::RewriterConfig::OFF);
+    }
+
     status = LoadSavedModel(session_opts, run_opts, sDir, tags, saved_model_bundle);
 
     if ( status != tensorflow::Status::OK() ) {
         __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "LoadSavedModel Status not OK");
         ThrowException(env, kIllegalArgumentException,"Internal error: SavedModelBundle.create: Unable to load model.");
+        delete saved_model_bundle;
         return;
     }
 
@@ -77,19 +110,25 @@ Java_ai_doc_tensorflow_SavedModelBundle_create(JNIEnv *env, jobject thiz, jstrin
 
     setHandle<tensorflow::SavedModelBundle>(env, thiz, saved_model_bundle);
     saved_model_bundle = nullptr;
+
+    TrackModels(1);
 }
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_ai_doc_tensorflow_SavedModelBundle_delete(JNIEnv *env, jobject thiz /*, jlong handle*/) {
-    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
-    tensorflow::Status status = saved_model_bundle->session->Close();
-    delete saved_model_bundle;
+Java_ai_doc_tensorflow_SavedModelBundle_delete(JNIEnv *env, jclass clazz, jlong handle) {
+    auto saved_model_bundle = reinterpret_cast<tensorflow::SavedModelBundle *>(handle);
+
+    if (saved_model_bundle) {
+        tensorflow::Status status = saved_model_bundle->session->Close();
+        delete saved_model_bundle;
+        TrackModels(-1);
+    }
 }
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_ai_doc_tensorflow_SavedModelBundle_run(JNIEnv *env, jobject thiz, jobjectArray inputTensors, jobjectArray outputTensors) {
+Java_ai_doc_tensorflow_SavedModelBundle_runTensors(JNIEnv *env, jobject thiz, jobjectArray inputTensors, jobjectArray outputTensors) {
     auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
     tensorflow::Status status;
 
@@ -99,12 +138,18 @@ Java_ai_doc_tensorflow_SavedModelBundle_run(JNIEnv *env, jobject thiz, jobjectAr
     std::vector<std::pair<std::string, tensorflow::Tensor>> inputs;
     jsize inputCount = env->GetArrayLength(inputTensors);
 
+    inputs.reserve(inputCount);
+
     for (jsize i = 0; i < inputCount; i++) {
         jobject inputTensor = env->GetObjectArrayElement(inputTensors, i);
-        auto input_tensor = *getHandle<tensorflow::Tensor>(env, inputTensor);
-        auto input_name = jstring2string(env, GetTensorName(env, inputTensor));
-        auto input = std::pair<std::string, tensorflow::Tensor>(input_name, input_tensor);
-        inputs.push_back(input);
+        auto input_tensor = getHandle<tensorflow::Tensor>(env, inputTensor);
+        if (!input_tensor) {
+            ThrowException(env, kIllegalArgumentException, "SavedModelBundle.run: Input %d has no backing tensor", i);
+            return;
+        }
+        const auto &input_name = GetInternedTensorName(env, inputTensor);
+        inputs.emplace_back(input_name, *input_tensor);
+        env->DeleteLocalRef(inputTensor);
     }
 
     // Prepare Outputs
@@ -113,10 +158,12 @@ Java_ai_doc_tensorflow_SavedModelBundle_run(JNIEnv *env, jobject thiz, jobjectAr
     std::vector<std::string> output_names;
     jsize outputCount = env->GetArrayLength(outputTensors);
 
+    output_names.reserve(outputCount);
+
     for (jsize i = 0; i < outputCount; i++) {
         jobject outputTensor = env->GetObjectArrayElement(outputTensors, i);
-        auto output_name = jstring2string(env, GetTensorName(env, outputTensor));
-        output_names.push_back(output_name);
+        output_names.push_back(GetInternedTensorName(env, outputTensor));
+        env->DeleteLocalRef(outputTensor);
     }
 
     std::vector<tensorflow::Tensor> outputs;
@@ -138,16 +185,204 @@ Java_ai_doc_tensorflow_SavedModelBundle_run(JNIEnv *env, jobject thiz, jobjectAr
 
     for (jsize i = 0; i < outputs.size(); i++) {
         jobject outputTensor = env->GetObjectArrayElement(outputTensors, i);
-        auto output = outputs[i]; // TODO: Avoid copying?
-        auto outputPtr = new tensorflow::Tensor(output);
-        setHandle<tensorflow::Tensor>(env, outputTensor, outputPtr);
+        if (!CaptureOutput(env, outputTensor, outputs[i])) {
+            return;
+        }
+    }
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_intern(JNIEnv *env, jclass clazz, jstring name) {
+    return reinterpret_cast<jlong>(InternString(jstring2string(env, name)));
+}
+
+// Signatures
+// A model's signatures are read once when it is loaded and flattened into an array of strings
+// and an array of ints, which Signature decodes. Signatures and their inputs and outputs are
+// sorted by key so that both arrays list them in the same order.
+//
+// Strings: for each signature its key and method name, then the key and tensor name of each
+// input followed by each output.
+// Ints: for each signature its input and output counts, then the dtype, rank, and dims of each
+// input followed by each output. A shape of unknown rank has rank -1.
+
+using SignatureMap = std::map<std::string, const tensorflow::SignatureDef *>;
+using TensorInfoMap = std::map<std::string, const tensorflow::TensorInfo *>;
+
+static SignatureMap SortedSignatures(const tensorflow::SavedModelBundle *saved_model_bundle) {
+    SignatureMap signatures;
+    for (const auto &entry : saved_model_bundle->meta_graph_def.signature_def()) {
+        signatures[entry.first] = &entry.second;
+    }
+    return signatures;
+}
+
+static TensorInfoMap SortedTensors(const google::protobuf::Map<std::string, tensorflow::TensorInfo> &tensors) {
+    TensorInfoMap sorted;
+    for (const auto &entry : tensors) {
+        sorted[entry.first] = &entry.second;
+    }
+    return sorted;
+}
+
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_signatureStrings(JNIEnv *env, jobject thiz) {
+    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
+    std::vector<const std::string *> strings;
+
+    for (const auto &signature : SortedSignatures(saved_model_bundle)) {
+        strings.push_back(&signature.first);
+        strings.push_back(&signature.second->method_name());
+
+        for (const auto *tensors : {&signature.second->inputs(), &signature.second->outputs()}) {
+            for (const auto &tensor : SortedTensors(*tensors)) {
+                strings.push_back(&tensor.first);
+                strings.push_back(&tensor.second->name());
+            }
+        }
+    }
+
+    jobjectArray array = env->NewObjectArray((jsize) strings.size(), jniCache.stringClass, nullptr);
+    if (!array) {
+        return nullptr;
+    }
+
+    for (size_t i = 0; i < strings.size(); i++) {
+        jstring string = env->NewStringUTF(strings[i]->c_str());
+        env->SetObjectArrayElement(array, (jsize) i, string);
+        env->DeleteLocalRef(string);
+    }
+
+    return array;
+}
+
+extern "C"
+JNIEXPORT jintArray JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_signatureInts(JNIEnv *env, jobject thiz) {
+    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
+    std::vector<jint> ints;
+
+    for (const auto &signature : SortedSignatures(saved_model_bundle)) {
+        ints.push_back(signature.second->inputs_size());
+        ints.push_back(signature.second->outputs_size());
+
+        for (const auto *tensors : {&signature.second->inputs(), &signature.second->outputs()}) {
+            for (const auto &tensor : SortedTensors(*tensors)) {
+                const auto &shape = tensor.second->tensor_shape();
+                ints.push_back(tensor.second->dtype());
+
+                if (shape.unknown_rank()) {
+                    ints.push_back(-1);
+                    continue;
+                }
+
+                ints.push_back(shape.dim_size());
+                for (const auto &dim : shape.dim()) {
+                    ints.push_back((jint) dim.size());
+                }
+            }
+        }
+    }
+
+    jintArray array = env->NewIntArray((jsize) ints.size());
+    if (!array) {
+        return nullptr;
+    }
+
+    env->SetIntArrayRegion(array, 0, (jsize) ints.size(), ints.data());
+    return array;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_runHandles(JNIEnv *env, jobject thiz, jlongArray inputHandles, jlongArray inputNames,
+                                                   jobjectArray outputTensors, jlongArray outputNames) {
+    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
+    tensorflow::Status status;
+
+    jsize inputCount = env->GetArrayLength(inputHandles);
+    jsize outputCount = env->GetArrayLength(outputTensors);
+
+    if (env->GetArrayLength(inputNames) != inputCount || env->GetArrayLength(outputNames) != outputCount) {
+        ThrowException(env, kIllegalArgumentException, "SavedModelBundle.run: Each tensor must have exactly one name");
+        return;
+    }
+
+    std::vector<jlong> input_handles(inputCount);
+    std::vector<jlong> input_names(inputCount);
+    std::vector<jlong> output_names(outputCount);
+
+    env->GetLongArrayRegion(inputHandles, 0, inputCount, input_handles.data());
+    env->GetLongArrayRegion(inputNames, 0, inputCount, input_names.data());
+    env->GetLongArrayRegion(outputNames, 0, outputCount, output_names.data());
+
+    // Prepare Inputs
+    // Handles and names point directly at backing tensors and interned strings
+
+    std::vector<std::pair<std::string, tensorflow::Tensor>> inputs;
+    inputs.reserve(inputCount);
+
+    for (jsize i = 0; i < inputCount; i++) {
+        auto input_tensor = reinterpret_cast<tensorflow::Tensor *>(input_handles[i]);
+        auto input_name = reinterpret_cast<const std::string *>(input_names[i]);
+
+        if (!input_tensor || !input_name) {
+            ThrowException(env, kIllegalArgumentException, "SavedModelBundle.run: Input %d has no backing tensor or name", i);
+            return;
+        }
+
+        inputs.emplace_back(*input_name, *input_tensor);
+    }
+
+    // Prepare Outputs
+
+    std::vector<std::string> output_name_strings;
+    output_name_strings.reserve(outputCount);
+
+    for (jsize i = 0; i < outputCount; i++) {
+        auto output_name = reinterpret_cast<const std::string *>(output_names[i]);
+
+        if (!output_name) {
+            ThrowException(env, kIllegalArgumentException, "SavedModelBundle.run: Output %d has no name", i);
+            return;
+        }
+
+        output_name_strings.push_back(*output_name);
+    }
+
+    std::vector<tensorflow::Tensor> outputs;
+
+    // Run Model
+
+    auto session = saved_model_bundle->session.get();
+    status = session->Run(inputs, output_name_strings, {}, &outputs);
+
+    if (status != tensorflow::Status::OK()) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.run: Unable to run model.");
+        return;
+    }
+
+    // Get Outputs
+
+    for (jsize i = 0; i < outputs.size(); i++) {
+        jobject outputTensor = env->GetObjectArrayElement(outputTensors, i);
+        bool captured = CaptureOutput(env, outputTensor, outputs[i]);
+        env->DeleteLocalRef(outputTensor);
+
+        if (!captured) {
+            return;
+        }
     }
 }
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_ai_doc_tensorflow_SavedModelBundle_train(JNIEnv *env, jobject thiz, jobjectArray inputTensors,
-                                              jobjectArray outputTensors, jobjectArray trainingOpNames) {
+Java_ai_doc_tensorflow_SavedModelBundle_trainStep(JNIEnv *env, jobject thiz, jobjectArray inputTensors,
+                                                  jobjectArray outputTensors, jobjectArray trainingOpNames,
+                                                  jboolean fetchAfterUpdate) {
     auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
     tensorflow::Status status;
 
@@ -157,12 +392,18 @@ Java_ai_doc_tensorflow_SavedModelBundle_train(JNIEnv *env, jobject thiz, jobject
     std::vector<std::pair<std::string, tensorflow::Tensor>> inputs;
     jsize inputCount = env->GetArrayLength(inputTensors);
 
+    inputs.reserve(inputCount);
+
     for (jsize i = 0; i < inputCount; i++) {
         jobject inputTensor = env->GetObjectArrayElement(inputTensors, i);
-        auto input_tensor = *getHandle<tensorflow::Tensor>(env, inputTensor);
-        auto input_name = jstring2string(env, GetTensorName(env, inputTensor));
-        auto input = std::pair<std::string, tensorflow::Tensor>(input_name, input_tensor);
-        inputs.push_back(input);
+        auto input_tensor = getHandle<tensorflow::Tensor>(env, inputTensor);
+        if (!input_tensor) {
+            ThrowException(env, kIllegalArgumentException, "SavedModelBundle.train: Input %d has no backing tensor", i);
+            return;
+        }
+        const auto &input_name = GetInternedTensorName(env, inputTensor);
+        inputs.emplace_back(input_name, *input_tensor);
+        env->DeleteLocalRef(inputTensor);
     }
 
     // Prepare Outputs
@@ -171,10 +412,12 @@ Java_ai_doc_tensorflow_SavedModelBundle_train(JNIEnv *env, jobject thiz, jobject
     std::vector<std::string> output_names;
     jsize outputCount = env->GetArrayLength(outputTensors);
 
+    output_names.reserve(outputCount);
+
     for (jsize i = 0; i < outputCount; i++) {
         jobject outputTensor = env->GetObjectArrayElement(outputTensors, i);
-        auto output_name = jstring2string(env, GetTensorName(env, outputTensor));
-        output_names.push_back(output_name);
+        output_names.push_back(GetInternedTensorName(env, outputTensor));
+        env->DeleteLocalRef(outputTensor);
     }
 
     std::vector<tensorflow::Tensor> outputs;
@@ -195,20 +438,41 @@ Java_ai_doc_tensorflow_SavedModelBundle_train(JNIEnv *env, jobject thiz, jobject
 
     auto session = saved_model_bundle->session.get();
 
-    status = session->Run(inputs, {}, training_names, nullptr);
+    if (!fetchAfterUpdate) {
 
-    if ( status != tensorflow::Status::OK() ) {
-        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
-        ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.train: Unable to run training step.");
-    }
+        // Fetch outputs and run the training ops in a single pass, so the outputs (usually loss)
+        // are those computed by the forward pass the gradients were applied from
 
-    // Run Output Step (usually loss)
+        status = session->Run(inputs, output_names, training_names, &outputs);
 
-    status = session->Run(inputs, output_names, {}, &outputs);
+        if ( status != tensorflow::Status::OK() ) {
+            __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+            ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.train: Unable to run training step.");
+            return;
+        }
 
-    if ( status != tensorflow::Status::OK() ) {
-        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
-        ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.train: Unable to run output step.");
+    } else {
+
+        // Run the training ops and then fetch the outputs with the updated variables, which
+        // repeats the forward pass
+
+        status = session->Run(inputs, {}, training_names, nullptr);
+
+        if ( status != tensorflow::Status::OK() ) {
+            __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+            ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.train: Unable to run training step.");
+            return;
+        }
+
+        // Run Output Step (usually loss)
+
+        status = session->Run(inputs, output_names, {}, &outputs);
+
+        if ( status != tensorflow::Status::OK() ) {
+            __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+            ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.train: Unable to run output step.");
+            return;
+        }
     }
 
     // Get Outputs
@@ -217,10 +481,114 @@ Java_ai_doc_tensorflow_SavedModelBundle_train(JNIEnv *env, jobject thiz, jobject
 
     for (jsize i = 0; i < outputs.size(); i++) {
         jobject outputTensor = env->GetObjectArrayElement(outputTensors, i);
-        auto output = outputs[i]; // TODO: Avoid copying?
-        auto outputPtr = new tensorflow::Tensor(output);
-        setHandle<tensorflow::Tensor>(env, outputTensor, outputPtr);
+        if (!CaptureOutput(env, outputTensor, outputs[i])) {
+            return;
+        }
+    }
+}
+
+extern "C"
+JNIEXPORT jfloatArray JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_trainLoop(JNIEnv *env, jobject thiz, jobject source, jint steps,
+                                                  jobjectArray trainingOpNames) {
+    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
+    auto session = saved_model_bundle->session.get();
+    tensorflow::Status status;
+
+    // Resolve the batch source's inputs, loss and callback once for the whole loop
+
+    jclass sourceClass = env->GetObjectClass(source);
+    jmethodID getInputs = env->GetMethodID(sourceClass, "getInputs", "()[Lai/doc/tensorflow/Tensor;");
+    jmethodID getLossName = env->GetMethodID(sourceClass, "getLossName", "()Ljava/lang/String;");
+    jmethodID nextBatch = env->GetMethodID(sourceClass, "nextBatch", "(I)Z");
+
+    auto inputTensors = (jobjectArray) env->CallObjectMethod(source, getInputs);
+    if (env->ExceptionCheck()) {
+        return nullptr;
+    }
+
+    auto lossName = (jstring) env->CallObjectMethod(source, getLossName);
+    if (env->ExceptionCheck()) {
+        return nullptr;
+    }
+
+    std::vector<std::string> output_names = {jstring2string(env, lossName)};
+    std::vector<std::string> training_names = jstringArray2vector(env, trainingOpNames);
+
+    jsize inputCount = env->GetArrayLength(inputTensors);
+    std::vector<jobject> input_tensors;
+    std::vector<std::pair<std::string, tensorflow::Tensor>> inputs;
+
+    for (jsize i = 0; i < inputCount; i++) {
+        jobject inputTensor = env->GetObjectArrayElement(inputTensors, i);
+        input_tensors.push_back(inputTensor);
+        inputs.emplace_back(GetInternedTensorName(env, inputTensor), tensorflow::Tensor());
+    }
+
+    std::vector<tensorflow::Tensor> outputs;
+    // Steps may be a large bound for training until the source runs out, so only a modest number
+    // of losses is reserved up front and the history grows past that as steps actually run
+
+    std::vector<jfloat> losses;
+    losses.reserve(std::min(std::max(steps, 0), 4096));
+
+    // Run Training Steps
+    // Each step asks the source to write the next batch into the reusable input tensors
+
+    for (jint step = 0; step < steps; step++) {
+        if (env->GetBooleanField(thiz, jniCache.savedModelBundleTrainingCancelled)) {
+            break;
+        }
+
+        jboolean hasBatch = env->CallBooleanMethod(source, nextBatch, step);
+        if (env->ExceptionCheck()) {
+            return nullptr;
+        }
+        if (!hasBatch) {
+            break;
+        }
+
+        for (jsize i = 0; i < inputCount; i++) {
+            auto input_tensor = getHandle<tensorflow::Tensor>(env, input_tensors[i]);
+            if (!input_tensor) {
+                ThrowException(env, kIllegalArgumentException, "SavedModelBundle.trainSteps: Input %d has no backing tensor", i);
+                return nullptr;
+            }
+            inputs[i].second = *input_tensor;
+        }
+
+        status = session->Run(inputs, output_names, training_names, &outputs);
+
+        if ( status != tensorflow::Status::OK() ) {
+            __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+            ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.trainSteps: Unable to run training step.");
+            return nullptr;
+        }
+
+        // The loss is reduced to its mean in case it is not a scalar
+
+        auto &loss = outputs[0];
+
+        if (loss.dtype() != tensorflow::DT_FLOAT || loss.NumElements() == 0) {
+            ThrowException(env, kIllegalArgumentException, "SavedModelBundle.trainSteps: Loss must be a float32 tensor");
+            return nullptr;
+        }
+
+        auto flat = loss.flat<float>();
+        float sum = 0;
+        for (tensorflow::int64 i = 0; i < flat.size(); i++) {
+            sum += flat(i);
+        }
+
+        losses.push_back(sum / flat.size());
     }
+
+    // Return Loss History
+
+    jfloatArray history = env->NewFloatArray(losses.size());
+    env->SetFloatArrayRegion(history, 0, losses.size(), losses.data());
+
+    return history;
 }
 
 extern "C"
@@ -245,3 +613,161 @@ Java_ai_doc_tensorflow_SavedModelBundle_export(JNIEnv *env, jobject thiz, jstrin
         ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.export: Unable to export model checkpoint.");
     }
 }
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_restore(JNIEnv *env, jobject thiz, jstring path) {
+    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
+    auto meta_graph_def = saved_model_bundle->meta_graph_def;
+    auto session = saved_model_bundle->session.get();
+    tensorflow::Status status;
+
+    auto sPath = jstring2string(env, path);
+    sPath += "/checkpoint";
+
+    tensorflow::Tensor checkpoint_tensor(tensorflow::DT_STRING, tensorflow::TensorShape());
+    checkpoint_tensor.scalar<std::string>()() = sPath;
+
+    // Run the saver's restore op against the existing session, which assigns the variables in
+    // place without reloading the graph
+
+    std::vector<std::pair<std::string, tensorflow::Tensor>> checkpoint_feed_dict = {{meta_graph_def.saver_def().filename_tensor_name(), checkpoint_tensor}};
+    status = session->Run(checkpoint_feed_dict, {}, {meta_graph_def.saver_def().restore_op_name()}, nullptr);
+
+    if ( status != tensorflow::Status::OK() ) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.restore: Unable to restore model checkpoint.");
+    }
+}
+
+// Checkpoint Snapshots
+// A snapshot holds deep copies of the variables the saver would write, so that they may be
+// written to disk on another thread while training continues
+
+struct CheckpointSnapshot {
+    std::vector<std::string> names;
+    std::vector<std::string> shape_and_slices;
+    std::vector<tensorflow::Tensor> tensors;
+};
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_snapshot(JNIEnv *env, jobject thiz) {
+    auto saved_model_bundle = getHandle<tensorflow::SavedModelBundle>(env, thiz);
+    auto meta_graph_def = saved_model_bundle->meta_graph_def;
+    auto session = saved_model_bundle->session.get();
+    tensorflow::Status status;
+
+    // Find the saver's SaveV2 ops, whose inputs are the prefix, tensor names, shapes and
+    // slices, and the tensors to save
+
+    auto save_tensor_name = meta_graph_def.saver_def().save_tensor_name();
+    auto scope = save_tensor_name.substr(0, save_tensor_name.find('/') + 1);
+
+    std::vector<std::string> fetch_names;
+    std::vector<size_t> tensor_counts;
+
+    for (const auto &node : meta_graph_def.graph_def().node()) {
+        if (node.op() != "SaveV2" || node.name().compare(0, scope.size(), scope) != 0) {
+            continue;
+        }
+
+        size_t tensor_count = 0;
+        for (int i = 1; i < node.input_size(); i++) {
+            if (node.input(i)[0] == '^') {
+                continue;
+            }
+            fetch_names.push_back(node.input(i));
+            tensor_count += i > 2 ? 1 : 0;
+        }
+        tensor_counts.push_back(tensor_count);
+    }
+
+    if (tensor_counts.empty()) {
+        ThrowException(env, kIllegalArgumentException, "SavedModelBundle.exportAsync: The model has no SaveV2 saver");
+        return 0;
+    }
+
+    // Fetch the names and variables together so they are consistent with one another
+
+    std::vector<tensorflow::Tensor> outputs;
+    status = session->Run({}, fetch_names, {}, &outputs);
+
+    if ( status != tensorflow::Status::OK() ) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.exportAsync: Unable to snapshot variables.");
+        return 0;
+    }
+
+    // Fetched variables may share memory with the live variables, so copy them
+
+    auto snapshot = new CheckpointSnapshot();
+    size_t offset = 0;
+
+    for (auto tensor_count : tensor_counts) {
+        auto names = outputs[offset].flat<std::string>();
+        auto shape_and_slices = outputs[offset + 1].flat<std::string>();
+
+        for (size_t i = 0; i < tensor_count; i++) {
+            snapshot->names.push_back(names(i));
+            snapshot->shape_and_slices.push_back(shape_and_slices(i));
+            snapshot->tensors.push_back(tensorflow::tensor::DeepCopy(outputs[offset + 2 + i]));
+        }
+
+        offset += 2 + tensor_count;
+    }
+
+    return (jlong) snapshot;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_writeSnapshot(JNIEnv *env, jclass clazz, jlong handle, jstring path) {
+    auto snapshot = (CheckpointSnapshot *) handle;
+    tensorflow::Status status;
+
+    auto sPath = jstring2string(env, path);
+    sPath += "/checkpoint";
+
+    // Write the snapshot the way the SaveV2 op would, as a single shard
+
+    tensorflow::BundleWriter writer(tensorflow::Env::Default(), sPath);
+
+    for (size_t i = 0; i < snapshot->tensors.size() && writer.status().ok(); i++) {
+        const auto &name = snapshot->names[i];
+        const auto &shape_and_slice = snapshot->shape_and_slices[i];
+        const auto &tensor = snapshot->tensors[i];
+
+        if (shape_and_slice.empty()) {
+            status = writer.Add(name, tensor);
+        } else {
+            tensorflow::TensorShape shape;
+            tensorflow::TensorSlice slice(tensor.dims());
+            tensorflow::TensorShape slice_shape;
+
+            status = tensorflow::checkpoint::ParseShapeAndSlice(shape_and_slice, &shape, &slice, &slice_shape);
+            if (status.ok()) {
+                status = writer.AddSlice(name, shape, slice, tensor);
+            }
+        }
+
+        if (!status.ok()) {
+            break;
+        }
+    }
+
+    if (status.ok()) {
+        status = writer.Finish();
+    }
+
+    if ( status != tensorflow::Status::OK() ) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "%s", status.error_message().c_str());
+        ThrowException(env, kIllegalArgumentException, "Internal error: SavedModelBundle.exportAsync: Unable to write model checkpoint.");
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_SavedModelBundle_deleteSnapshot(JNIEnv *env, jclass clazz, jlong handle) {
+    delete (CheckpointSnapshot *) handle;
+}
@@ -20,32 +20,198 @@
 
 #include "tensor_jni.h"
 
+#include <cstdint>
 #include <vector>
 #include <android/log.h>
 
+#include "tensorflow/core/framework/allocation_description.pb.h"
 #include "tensorflow/core/public/session.h"
 
 #include "jni_utils.h"
+#include "native_memory_stats_jni.h"
+#include "tensor_pool.h"
 
 jstring GetTensorName(JNIEnv *env, jobject obj) {
-    jclass c = env->GetObjectClass(obj);
-    jfieldID fieldId = env->GetFieldID(c, "name", "Ljava/lang/String;");
-    return (jstring) env->GetObjectField(obj, fieldId);
+    return (jstring) env->GetObjectField(obj, jniCache.tensorName);
 }
 
-extern "C"
-JNIEXPORT void JNICALL
-Java_ai_doc_tensorflow_Tensor_create(JNIEnv *env, jobject thiz, jint dtype, jboolean scalar, jintArray shape) {
+const std::string &GetInternedTensorName(JNIEnv *env, jobject obj) {
+    auto name = reinterpret_cast<const std::string *>(env->GetLongField(obj, jniCache.tensorNameHandle));
 
-    // Prepare Shape
+    // Names are converted from Java the first time a tensor is used and then cached on it
+
+    if (!name) {
+        jstring javaName = GetTensorName(env, obj);
+        name = InternString(jstring2string(env, javaName));
+        env->SetLongField(obj, jniCache.tensorNameHandle, reinterpret_cast<jlong>(name));
+        env->DeleteLocalRef(javaName);
+    }
+
+    return *name;
+}
+
+bool IsTensorBacked(JNIEnv *env, jobject obj) {
+    return env->GetBooleanField(obj, jniCache.tensorIsBacked);
+}
+
+// Handle Assignment
+// Every tensorflow::Tensor behind a Java Tensor is created or reassigned here so that its memory
+// is accounted for in NativeMemoryStats. A tensor that already has a handle keeps it, and only
+// its contents are replaced.
+
+static void AssignTensor(JNIEnv *env, jobject obj, const tensorflow::Tensor &value) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, obj);
+
+    if (tensor) {
+        TrackTensors(0, (int64_t) value.TotalBytes() - (int64_t) tensor->TotalBytes());
+        *tensor = value;
+    } else {
+        TrackTensors(1, value.TotalBytes());
+        setHandle<tensorflow::Tensor>(env, obj, new tensorflow::Tensor(value));
+    }
+}
+
+// Output Capture
+// Outputs may be declared without a shape or type, and a model may produce a different shape
+// than the one declared, so the Java tensor takes on the shape and type of each output it
+// captures. Fields are only written when they change, so steady state runs allocate nothing.
+
+static bool ReportShapeAndType(JNIEnv *env, jobject obj, const tensorflow::Tensor &output) {
+    jobject dtype = env->GetObjectField(obj, jniCache.tensorDtype);
+
+    if (!dtype || env->GetIntField(dtype, jniCache.dataTypeValue) != output.dtype()) {
+        jobject outputType = env->CallStaticObjectMethod(jniCache.dataTypeClass, jniCache.dataTypeFromC, (jint) output.dtype());
+        if (env->ExceptionCheck()) {
+            return false;
+        }
+        env->SetObjectField(obj, jniCache.tensorDtype, outputType);
+        env->DeleteLocalRef(outputType);
+    }
+
+    env->DeleteLocalRef(dtype);
+
+    int dims = output.dims();
+    std::vector<jint> outputShape(dims);
+    for (int i = 0; i < dims; i++) {
+        outputShape[i] = (jint) output.dim_size(i);
+    }
+
+    auto shape = static_cast<jintArray>(env->GetObjectField(obj, jniCache.tensorShape));
+    bool changed = !shape || env->GetArrayLength(shape) != dims;
+
+    if (!changed && dims > 0) {
+        std::vector<jint> current(dims);
+        env->GetIntArrayRegion(shape, 0, dims, current.data());
+        changed = current != outputShape;
+    }
+
+    if (changed) {
+        jintArray newShape = env->NewIntArray(dims);
+        if (!newShape) {
+            return false;
+        }
+        env->SetIntArrayRegion(newShape, 0, dims, outputShape.data());
+        env->SetObjectField(obj, jniCache.tensorShape, newShape);
+        env->SetBooleanField(obj, jniCache.tensorScalar, dims == 0);
+        env->DeleteLocalRef(newShape);
+    }
+
+    env->DeleteLocalRef(shape);
+    return true;
+}
+
+bool CaptureOutput(JNIEnv *env, jobject obj, const tensorflow::Tensor &output) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, obj);
+
+    // Unbacked tensors share the output's buffer, reusing any tensor they already hold
+
+    if (!tensor || !IsTensorBacked(env, obj)) {
+        AssignTensor(env, obj, output);
+        return ReportShapeAndType(env, obj, output);
+    }
+
+    // Backed string tensors hold no caller memory and share the output like unbacked ones
+
+    if (!tensorflow::DataTypeCanUseMemcpy(output.dtype()) && tensor->dtype() == output.dtype() && tensor->shape() == output.shape()) {
+        AssignTensor(env, obj, output);
+        return ReportShapeAndType(env, obj, output);
+    }
+
+    // Backed tensors own their memory, which may be a caller's buffer, so copy the output into it
+
+    if (tensor->dtype() != output.dtype() || tensor->TotalBytes() != output.TotalBytes() || !tensorflow::DataTypeCanUseMemcpy(output.dtype())) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "Preallocated output has type %d and %zu bytes but model produced type %d and %zu bytes",
+                tensor->dtype(), tensor->TotalBytes(), output.dtype(), output.TotalBytes());
+        ThrowException(env, kIllegalArgumentException, "Internal error: Preallocated output tensor does not match the model's output");
+        return false;
+    }
+
+    memcpy(const_cast<char*>(tensor->tensor_data().data()), output.tensor_data().data(), output.TotalBytes());
+    return ReportShapeAndType(env, obj, output);
+}
+
+// Direct Buffer Backed Tensors
+// A TensorBuffer that borrows the memory of a java.nio direct ByteBuffer rather than allocating
+// its own. The ByteBuffer is pinned with a global reference for as long as any tensorflow::Tensor
+// refers to this buffer, and the reference is released when the last tensor lets go of it.
+
+class DirectByteBufferTensorBuffer : public tensorflow::TensorBuffer {
+public:
+    DirectByteBufferTensorBuffer(JNIEnv *env, jobject buffer, void *data, size_t size)
+            : TensorBuffer(data), size_(size) {
+        env->GetJavaVM(&vm_);
+        buffer_ = env->NewGlobalRef(buffer);
+    }
+
+    ~DirectByteBufferTensorBuffer() override {
+        // The last reference may be dropped on a thread that is not attached to the VM
+
+        JNIEnv *env = nullptr;
+        jint status = vm_->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6);
+
+        if (status == JNI_EDETACHED) {
+            vm_->AttachCurrentThread(&env, nullptr);
+            env->DeleteGlobalRef(buffer_);
+            vm_->DetachCurrentThread();
+        } else {
+            env->DeleteGlobalRef(buffer_);
+        }
+    }
+
+    size_t size() const override {
+        return size_;
+    }
 
+    TensorBuffer* root_buffer() override {
+        return this;
+    }
+
+    void FillAllocationDescription(tensorflow::AllocationDescription* proto) const override {
+        proto->set_requested_bytes(size_);
+        proto->set_allocator_name("DirectByteBuffer");
+    }
+
+    bool OwnsMemory() const override {
+        return false;
+    }
+
+private:
+    JavaVM *vm_ = nullptr;
+    jobject buffer_ = nullptr;
+    const size_t size_;
+};
+
+// Shape Utilities
+
+tensorflow::TensorShape GetTensorShape(JNIEnv *env, jboolean scalar, jintArray shape) {
     std::vector<tensorflow::int64> dims;
     jint *jShape = env->GetIntArrayElements(shape, nullptr);
     jsize shapeCount = env->GetArrayLength(shape);
 
     // If scalar first dimension may be -1 or fixed batch size, but all other dimensions will be 1 and can be ignored
+    // An empty shape is rank 0 whether or not it is marked scalar
 
-    if (scalar) {
+    if (scalar && shapeCount > 0) {
         dims.push_back(jShape[0]);
     } else {
         for (jsize i = 0; i < shapeCount; i++) {
@@ -53,34 +219,96 @@ Java_ai_doc_tensorflow_Tensor_create(JNIEnv *env, jobject thiz, jint dtype, jboo
         }
     }
 
+    env->ReleaseIntArrayElements(shape, jShape, JNI_ABORT);
+
     tensorflow::gtl::ArraySlice<tensorflow::int64> dim_sizes(dims);
-    auto tensorShape = tensorflow::TensorShape(dim_sizes);
+    return tensorflow::TensorShape(dim_sizes);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_create(JNIEnv *env, jobject thiz, jint dtype, jboolean scalar, jintArray shape) {
+
+    // Prepare Shape
+
+    auto tensorShape = GetTensorShape(env, scalar, shape);
 
     // Prepare Data Type
 
     auto tensorType = static_cast<tensorflow::DataType>(dtype);
 
     // Create Tensor
+    // A tensor that already holds a model's output gives it up for newly allocated memory
 
-    auto tensor = new tensorflow::Tensor(tensorType, tensorShape);
+    AssignTensor(env, thiz, AllocatePooledTensor(tensorType, tensorShape));
+}
 
-    // JNI Memory Management
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_delete(JNIEnv *env, jclass clazz, jlong handle) {
+    auto tensor = reinterpret_cast<tensorflow::Tensor *>(handle);
 
-    setHandle<tensorflow::Tensor>(env, thiz, tensor);
+    if (tensor) {
+        TrackTensors(-1, -(int64_t) tensor->TotalBytes());
+        delete tensor;
+    }
 }
 
 extern "C"
-JNIEXPORT void JNICALL
-Java_ai_doc_tensorflow_Tensor_delete(JNIEnv *env, jobject thiz) {
-    delete getHandle<tensorflow::Tensor>(env, thiz);
+JNIEXPORT jboolean JNICALL
+Java_ai_doc_tensorflow_Tensor_wrap(JNIEnv *env, jobject thiz, jobject src, jlong size, jint dtype, jboolean scalar, jintArray shape) {
+    void* src_data_raw = env->GetDirectBufferAddress(src);
+
+    if (!src_data_raw) {
+        ThrowException(env, kIllegalArgumentException,"Input ByteBuffer is not a direct buffer");
+        return JNI_FALSE;
+    }
+
+    if (env->GetDirectBufferCapacity(src) < size) {
+        ThrowException(env, kIllegalArgumentException, "Input ByteBuffer is smaller than the tensor it backs");
+        return JNI_FALSE;
+    }
+
+    auto tensorShape = GetTensorShape(env, scalar, shape);
+    auto tensorType = static_cast<tensorflow::DataType>(dtype);
+
+    if (!tensorflow::DataTypeCanUseMemcpy(tensorType)) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "Illegal tensor type requested, only numeric tensors may wrap a buffer");
+        ThrowException(env, kIllegalArgumentException, "Internal Error: Tensor.wrap: Illegal tensor type requested");
+        return JNI_FALSE;
+    }
+
+    // TensorFlow kernels may use aligned loads on tensor memory, so only wrap suitably aligned
+    // buffers and fall back to a copy otherwise, as TF_NewTensor does
+
+    bool aligned = reinterpret_cast<intptr_t>(src_data_raw) % EIGEN_MAX_ALIGN_BYTES == 0;
+    tensorflow::Tensor wrapped;
+
+    if (aligned) {
+        auto buffer = new DirectByteBufferTensorBuffer(env, src, src_data_raw, size);
+        wrapped = tensorflow::Tensor(tensorType, tensorShape, buffer);
+        buffer->Unref();
+    } else {
+        wrapped = AllocatePooledTensor(tensorType, tensorShape);
+        memcpy(const_cast<char*>(wrapped.tensor_data().data()), src_data_raw, size);
+    }
+
+    // JNI Memory Management
+    // Re-wrapping a tensor releases the buffer it previously held
+
+    AssignTensor(env, thiz, wrapped);
+
+    return static_cast<jboolean>(aligned);
 }
 
+// Byte Access
+// Any type whose elements can be copied with memcpy is read and written through its raw bytes
+
 extern "C"
 JNIEXPORT void JNICALL
 Java_ai_doc_tensorflow_Tensor_writeBytes(JNIEnv *env, jobject thiz, jobject src, jlong size, jint dtype) {
     auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
     auto tensorType = static_cast<tensorflow::DataType>(dtype);
-    void *buffer = nullptr;
 
     char* src_data_raw = static_cast<char*>(env->GetDirectBufferAddress(src));
 
@@ -89,80 +317,242 @@ Java_ai_doc_tensorflow_Tensor_writeBytes(JNIEnv *env, jobject thiz, jobject src,
         return;
     }
 
-    switch (tensorType) {
-        case tensorflow::DT_FLOAT: {
-            auto flat = tensor->flat<float_t>();
-            buffer = flat.data();
-            break;
-        }
-        case tensorflow::DT_UINT8: {
-            auto flat = tensor->flat<uint8_t>();
-            buffer = flat.data();
-            break;
-        }
-        case tensorflow::DT_INT32: {
-            auto flat = tensor->flat<int32_t>();
-            buffer = flat.data();
-            break;
-        }
-        case tensorflow::DT_INT64: {
-            // int64_t ends up typed to long?
-            // which throws a DataTypeToEnum "Specified Data Type not supported error in tensorflow/core/framework/types.h
-            auto flat = tensor->flat<long long>();
-            buffer = flat.data();
-            break;
-        }
-        default:
-            __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "Illegal tensor type requested, must be one of float, uint8, int32, or int64");
-            ThrowException(env, kIllegalArgumentException, "Internal Error: Tensor:.writeBytes: Illegal tensor type requested");
-            break;
+    if (!tensorflow::DataTypeCanUseMemcpy(tensorType) || tensor->dtype() != tensorType || (size_t) size > tensor->TotalBytes()) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "Illegal tensor type requested, must be a numeric or bool type");
+        ThrowException(env, kIllegalArgumentException, "Internal Error: Tensor:.writeBytes: Illegal tensor type requested");
+        return;
     }
 
-    // works
-    memcpy(buffer, src_data_raw, size);
+    memcpy(const_cast<char*>(tensor->tensor_data().data()), src_data_raw, size);
+}
 
-    // doesn't work
-    // buffer = (float*)src_data_raw;
+// Buffers handed to Java view a pin, a second tensorflow::Tensor sharing the tensor's memory,
+// which holds a reference to the memory until the buffer itself is collected. The buffer stays
+// valid even if the Java tensor is closed, collected, or given new memory while it is in use.
 
-    // works
-    // buffer[0] = ((float*)src_data_raw)[0];
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_Tensor_pin(JNIEnv *env, jobject thiz) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+    return reinterpret_cast<jlong>(new tensorflow::Tensor(*tensor));
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_unpin(JNIEnv *env, jclass clazz, jlong pin) {
+    delete reinterpret_cast<tensorflow::Tensor *>(pin);
 }
 
 extern "C"
 JNIEXPORT jobject JNICALL
-Java_ai_doc_tensorflow_Tensor_readBytes(JNIEnv *env, jobject thiz, jlong size, jint dtype) {
-    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+Java_ai_doc_tensorflow_Tensor_readBytes(JNIEnv *env, jclass clazz, jlong pin, jlong size, jint dtype) {
+    auto tensor = reinterpret_cast<tensorflow::Tensor *>(pin);
     auto tensorType = static_cast<tensorflow::DataType>(dtype);
-    void *buffer = nullptr;
 
-    switch (tensorType) {
-        case tensorflow::DT_FLOAT: {
-            auto flat = tensor->flat<float_t>();
-            buffer = flat.data();
-            break;
+    if (!tensorflow::DataTypeCanUseMemcpy(tensorType) || tensor->dtype() != tensorType || (size_t) size > tensor->TotalBytes()) {
+        __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "Illegal tensor type requested, must be a numeric or bool type");
+        ThrowException(env, kIllegalArgumentException, "Internal Error: Tensor.readBytes: Illegal tensor type requested");
+        return nullptr;
+    }
+
+    return env->NewDirectByteBuffer(const_cast<char*>(tensor->tensor_data().data()), size);
+}
+
+// Bulk Array Access
+// Primitive arrays are copied directly to and from tensor memory while pinned
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_copyFromArray(JNIEnv *env, jobject thiz, jobject src, jint offset, jint length, jint elementSize) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+    size_t bytes = (size_t) length * elementSize;
+
+    if (!tensorflow::DataTypeCanUseMemcpy(tensor->dtype()) || bytes > tensor->TotalBytes()) {
+        ThrowException(env, kIllegalArgumentException, "Tensor.write: Array does not fit the tensor");
+        return;
+    }
+
+    auto array = static_cast<jarray>(src);
+    auto data = static_cast<char *>(env->GetPrimitiveArrayCritical(array, nullptr));
+    if (!data) {
+        return;
+    }
+
+    memcpy(const_cast<char *>(tensor->tensor_data().data()), data + (size_t) offset * elementSize, bytes);
+
+    env->ReleasePrimitiveArrayCritical(array, data, JNI_ABORT);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_copyToArray(JNIEnv *env, jobject thiz, jobject dst, jint offset, jint length, jint elementSize) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+    size_t bytes = (size_t) length * elementSize;
+
+    if (!tensorflow::DataTypeCanUseMemcpy(tensor->dtype()) || bytes > tensor->TotalBytes()) {
+        ThrowException(env, kIllegalArgumentException, "Tensor.read: Array is larger than the tensor");
+        return;
+    }
+
+    auto array = static_cast<jarray>(dst);
+    auto data = static_cast<char *>(env->GetPrimitiveArrayCritical(array, nullptr));
+    if (!data) {
+        return;
+    }
+
+    memcpy(data + (size_t) offset * elementSize, tensor->tensor_data().data(), bytes);
+
+    env->ReleasePrimitiveArrayCritical(array, data, 0);
+}
+
+// String Tensors
+// Strings cross JNI as UTF-8 byte arrays, one per element in row major order
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_copyFromStrings(JNIEnv *env, jobject thiz, jobjectArray src) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+    jsize count = env->GetArrayLength(src);
+
+    if (tensor->dtype() != tensorflow::DT_STRING || count != tensor->NumElements()) {
+        ThrowException(env, kIllegalArgumentException, "Tensor.writeStrings: Expected %lld strings", (long long) tensor->NumElements());
+        return;
+    }
+
+    auto flat = tensor->flat<tensorflow::tstring>();
+
+    for (jsize i = 0; i < count; i++) {
+        auto bytes = static_cast<jbyteArray>(env->GetObjectArrayElement(src, i));
+
+        if (!bytes) {
+            flat(i).clear();
+            continue;
         }
-        case tensorflow::DT_UINT8: {
-            auto flat = tensor->flat<uint8_t>();
-            buffer = flat.data();
-            break;
+
+        jsize length = env->GetArrayLength(bytes);
+        flat(i).resize(length);
+        env->GetByteArrayRegion(bytes, 0, length, reinterpret_cast<jbyte *>(&flat(i)[0]));
+        env->DeleteLocalRef(bytes);
+    }
+}
+
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_ai_doc_tensorflow_Tensor_copyToStrings(JNIEnv *env, jobject thiz) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+
+    if (tensor->dtype() != tensorflow::DT_STRING) {
+        ThrowException(env, kIllegalArgumentException, "Tensor.readStrings: Tensor does not hold strings");
+        return nullptr;
+    }
+
+    auto flat = tensor->flat<tensorflow::tstring>();
+    auto count = static_cast<jsize>(flat.size());
+
+    jobjectArray strings = env->NewObjectArray(count, jniCache.byteArrayClass, nullptr);
+    if (!strings) {
+        return nullptr;
+    }
+
+    for (jsize i = 0; i < count; i++) {
+        const auto &value = flat(i);
+        auto length = static_cast<jsize>(value.size());
+
+        jbyteArray bytes = env->NewByteArray(length);
+        if (!bytes) {
+            return nullptr;
         }
-        case tensorflow::DT_INT32: {
-            auto flat = tensor->flat<int32_t>();
-            buffer = flat.data();
+
+        env->SetByteArrayRegion(bytes, 0, length, reinterpret_cast<const jbyte *>(value.data()));
+        env->SetObjectArrayElement(strings, i, bytes);
+        env->DeleteLocalRef(bytes);
+    }
+
+    return strings;
+}
+
+// Float Conversion
+// Floats are converted to and from reduced or extended precision tensors with Eigen casts, which
+// are vectorized where the platform supports it
+
+typedef Eigen::TensorMap<Eigen::Tensor<float, 1, Eigen::RowMajor>> FloatMap;
+
+template <typename T>
+static void CastFromFloats(tensorflow::Tensor *tensor, float *src, jint length) {
+    Eigen::TensorMap<Eigen::Tensor<T, 1, Eigen::RowMajor>> dst(tensor->flat<T>().data(), length);
+    dst = FloatMap(src, length).template cast<T>();
+}
+
+template <typename T>
+static void CastToFloats(const tensorflow::Tensor *tensor, float *dst, jint length) {
+    Eigen::TensorMap<Eigen::Tensor<const T, 1, Eigen::RowMajor>> src(tensor->flat<T>().data(), length);
+    FloatMap(dst, length) = src.template cast<float>();
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_convertFromFloats(JNIEnv *env, jobject thiz, jfloatArray src, jint offset, jint length) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+
+    if (length > tensor->NumElements()) {
+        ThrowException(env, kIllegalArgumentException, "Tensor.write: Array does not fit the tensor");
+        return;
+    }
+
+    auto data = static_cast<float *>(env->GetPrimitiveArrayCritical(src, nullptr));
+    if (!data) {
+        return;
+    }
+
+    switch (tensor->dtype()) {
+        case tensorflow::DT_HALF:
+            CastFromFloats<Eigen::half>(tensor, data + offset, length);
             break;
-        }
-        case tensorflow::DT_INT64: {
-            // int64_t ends up typed to long?
-            // which throws a DataTypeToEnum "Specified Data Type not supported error in tensorflow/core/framework/types.h
-            auto flat = tensor->flat<long long>();
-            buffer = flat.data();
+        case tensorflow::DT_BFLOAT16:
+            CastFromFloats<tensorflow::bfloat16>(tensor, data + offset, length);
+            break;
+        case tensorflow::DT_DOUBLE:
+            CastFromFloats<double>(tensor, data + offset, length);
             break;
-        }
         default:
-            __android_log_print(ANDROID_LOG_ERROR, "Tensor/IO TensorFlow", "Illegal tensor type requested, must be one of float, uint8, int32, or int64");
-            ThrowException(env, kIllegalArgumentException, "Internal Error: Tensor.readBytes: Illegal tensor type requested");
+            env->ReleasePrimitiveArrayCritical(src, data, JNI_ABORT);
+            ThrowException(env, kIllegalArgumentException, "Tensor.write: Floats may only be converted to float16, bfloat16, or float64");
+            return;
+    }
+
+    env->ReleasePrimitiveArrayCritical(src, data, JNI_ABORT);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_Tensor_convertToFloats(JNIEnv *env, jobject thiz, jfloatArray dst, jint offset, jint length) {
+    auto tensor = getHandle<tensorflow::Tensor>(env, thiz);
+
+    if (length > tensor->NumElements()) {
+        ThrowException(env, kIllegalArgumentException, "Tensor.read: Array is larger than the tensor");
+        return;
+    }
+
+    auto data = static_cast<float *>(env->GetPrimitiveArrayCritical(dst, nullptr));
+    if (!data) {
+        return;
+    }
+
+    switch (tensor->dtype()) {
+        case tensorflow::DT_HALF:
+            CastToFloats<Eigen::half>(tensor, data + offset, length);
             break;
+        case tensorflow::DT_BFLOAT16:
+            CastToFloats<tensorflow::bfloat16>(tensor, data + offset, length);
+            break;
+        case tensorflow::DT_DOUBLE:
+            CastToFloats<double>(tensor, data + offset, length);
+            break;
+        default:
+            env->ReleasePrimitiveArrayCritical(dst, data, JNI_ABORT);
+            ThrowException(env, kIllegalArgumentException, "Tensor.read: Floats may only be converted from float16, bfloat16, or float64");
+            return;
     }
 
-    return env->NewDirectByteBuffer(buffer, size);
+    env->ReleasePrimitiveArrayCritical(dst, data, 0);
 }
@@ -21,6 +21,7 @@
 #define TENSORIO_TENSORFLOW_TENSOR_JNI_H
 
 #include <jni.h>
+#include <string>
 
 enum TensorDataType {
     kDTypeFloat32   = 1,
@@ -30,6 +31,22 @@ enum TensorDataType {
     kDTypeString    = 5
 };
 
+namespace tensorflow {
+    class Tensor;
+}
+
 jstring GetTensorName(JNIEnv *env, jobject obj);
 
+/** Returns the tensor's name, converting it from Java only the first time the tensor is used */
+
+const std::string &GetInternedTensorName(JNIEnv *env, jobject obj);
+
+/**
+ * Captures a model output into a Java Tensor. Preallocated tensors receive a copy of the output in
+ * their existing memory, other tensors share the output's buffer. Returns false and throws a Java
+ * exception if a preallocated tensor cannot hold the output.
+ */
+
+bool CaptureOutput(JNIEnv *env, jobject obj, const tensorflow::Tensor &output);
+
 #endif //TENSORIO_TENSORFLOW_TENSOR_JNI_H
@@ -0,0 +1,371 @@
+/*
+ * tensor_pool.cpp
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow on 10/18/26
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "tensor_pool.h"
+
+#include <atomic>
+#include <jni.h>
+#include <mutex>
+#include <unordered_map>
+#include <unordered_set>
+#include <vector>
+
+#include "tensorflow/core/framework/allocation_description.pb.h"
+#include "tensorflow/core/platform/mem.h"
+
+// Pool Keys
+// Blocks are recycled between tensors with the same data type and shape
+
+struct PoolKey {
+    tensorflow::DataType dtype;
+    std::vector<tensorflow::int64> dims;
+
+    bool operator==(const PoolKey &other) const {
+        return dtype == other.dtype && dims == other.dims;
+    }
+};
+
+struct PoolKeyHash {
+    size_t operator()(const PoolKey &key) const {
+        size_t hash = std::hash<int>()(key.dtype);
+        for (auto dim : key.dims) {
+            hash = hash * 31 + std::hash<tensorflow::int64>()(dim);
+        }
+        return hash;
+    }
+};
+
+typedef std::unordered_map<PoolKey, std::vector<void *>, PoolKeyHash> BlockMap;
+
+// Tensor Pool
+// Free blocks are held first in a small per thread cache and then in a global free list. Every
+// pooled block, wherever it is held, counts against a single maximum number of bytes, and blocks
+// that would exceed it are freed. A thread's cache is also bounded by its own number of blocks per
+// key and number of bytes, so that a thread that only frees tensors, such as the NativeCleaner
+// thread, cannot pin much memory.
+//
+// Each cache has its own lock, which only its thread takes outside of Clear and so is
+// uncontended. Caches register themselves so that Clear can empty every one of them.
+
+static const size_t kThreadCacheBlocksPerKey = 4;
+static const int64_t kThreadCacheMaxBytes = 4 * 1024 * 1024;
+
+struct ThreadCache;
+
+class TensorPool {
+public:
+    static TensorPool &Get() {
+        // Never destroyed, so that blocks released as threads exit still have a pool to return to
+        static auto pool = new TensorPool();
+        return *pool;
+    }
+
+    void *Allocate(const PoolKey &key, size_t size);
+    void Release(const PoolKey &key, void *data, size_t size);
+    void ReleaseToGlobal(const PoolKey &key, void *data, size_t size);
+    void SetMaxBytes(int64_t bytes);
+    void Clear();
+
+    /** Counts size bytes as pooled if they fit under maxBytes */
+    bool Reserve(size_t size);
+
+    void Register(ThreadCache *cache);
+    void Unregister(ThreadCache *cache);
+
+    std::atomic<int64_t> maxBytes{64 * 1024 * 1024};
+    std::atomic<int64_t> pooledBytes{0};
+    std::atomic<int64_t> hits{0};
+    std::atomic<int64_t> misses{0};
+
+private:
+    std::mutex mutex_;
+    BlockMap global_;
+
+    std::mutex cachesMutex_;
+    std::unordered_set<ThreadCache *> caches_;
+};
+
+static size_t BlockSize(const PoolKey &key) {
+    return tensorflow::DataTypeSize(key.dtype) * tensorflow::TensorShape(key.dims).num_elements();
+}
+
+/** Frees every block in a map, which must no longer be counted as pooled */
+
+static void FreeBlocks(BlockMap &blocks) {
+    for (auto &entry : blocks) {
+        for (auto data : entry.second) {
+            tensorflow::port::AlignedFree(data);
+        }
+    }
+    blocks.clear();
+}
+
+/**
+ * A thread's cache, whose blocks are handed to the global list when the thread exits. Buffers
+ * released after the cache is destroyed, by other thread local destructors, go to the global
+ * list directly.
+ */
+
+static thread_local bool threadCacheDestroyed = false;
+
+struct ThreadCache {
+    std::mutex mutex;
+    BlockMap blocks;
+    int64_t bytes = 0;
+
+    ThreadCache() {
+        TensorPool::Get().Register(this);
+    }
+
+    ~ThreadCache() {
+        threadCacheDestroyed = true;
+        TensorPool::Get().Unregister(this);
+
+        std::lock_guard<std::mutex> lock(mutex);
+        for (auto &entry : blocks) {
+            size_t size = BlockSize(entry.first);
+            for (auto data : entry.second) {
+                TensorPool::Get().pooledBytes -= size;
+                TensorPool::Get().ReleaseToGlobal(entry.first, data, size);
+            }
+        }
+        blocks.clear();
+        bytes = 0;
+    }
+
+    /** Empties the cache, returning the number of bytes it held */
+
+    int64_t Take(BlockMap &taken) {
+        std::lock_guard<std::mutex> lock(mutex);
+        for (auto &entry : blocks) {
+            auto &list = taken[entry.first];
+            list.insert(list.end(), entry.second.begin(), entry.second.end());
+        }
+        blocks.clear();
+
+        int64_t held = bytes;
+        bytes = 0;
+        return held;
+    }
+};
+
+static thread_local ThreadCache threadCache;
+
+bool TensorPool::Reserve(size_t size) {
+    int64_t pooled = pooledBytes.load();
+    while (pooled + (int64_t) size <= maxBytes.load()) {
+        if (pooledBytes.compare_exchange_weak(pooled, pooled + (int64_t) size)) {
+            return true;
+        }
+    }
+    return false;
+}
+
+void TensorPool::Register(ThreadCache *cache) {
+    std::lock_guard<std::mutex> lock(cachesMutex_);
+    caches_.insert(cache);
+}
+
+void TensorPool::Unregister(ThreadCache *cache) {
+    std::lock_guard<std::mutex> lock(cachesMutex_);
+    caches_.erase(cache);
+}
+
+void *TensorPool::Allocate(const PoolKey &key, size_t size) {
+    if (!threadCacheDestroyed) {
+        std::lock_guard<std::mutex> lock(threadCache.mutex);
+        auto cached = threadCache.blocks.find(key);
+
+        if (cached != threadCache.blocks.end() && !cached->second.empty()) {
+            void *data = cached->second.back();
+            cached->second.pop_back();
+            threadCache.bytes -= size;
+            pooledBytes -= size;
+            hits++;
+            return data;
+        }
+    }
+
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        auto global = global_.find(key);
+
+        if (global != global_.end() && !global->second.empty()) {
+            void *data = global->second.back();
+            global->second.pop_back();
+            pooledBytes -= size;
+            hits++;
+            return data;
+        }
+    }
+
+    misses++;
+    return tensorflow::port::AlignedMalloc(size, EIGEN_MAX_ALIGN_BYTES);
+}
+
+void TensorPool::Release(const PoolKey &key, void *data, size_t size) {
+    if (!threadCacheDestroyed) {
+        std::lock_guard<std::mutex> lock(threadCache.mutex);
+        auto &cached = threadCache.blocks[key];
+
+        if (cached.size() < kThreadCacheBlocksPerKey && threadCache.bytes + (int64_t) size <= kThreadCacheMaxBytes && Reserve(size)) {
+            cached.push_back(data);
+            threadCache.bytes += size;
+            return;
+        }
+    }
+
+    ReleaseToGlobal(key, data, size);
+}
+
+void TensorPool::ReleaseToGlobal(const PoolKey &key, void *data, size_t size) {
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        if (Reserve(size)) {
+            global_[key].push_back(data);
+            return;
+        }
+    }
+
+    tensorflow::port::AlignedFree(data);
+}
+
+void TensorPool::SetMaxBytes(int64_t bytes) {
+    maxBytes = bytes;
+
+    // Lowering the maximum below what is pooled empties the pool rather than waiting for it to drain
+
+    if (pooledBytes > bytes) {
+        Clear();
+    }
+}
+
+void TensorPool::Clear() {
+    BlockMap blocks;
+
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        blocks.swap(global_);
+
+        int64_t globalBytes = 0;
+        for (auto &entry : blocks) {
+            globalBytes += BlockSize(entry.first) * entry.second.size();
+        }
+        pooledBytes -= globalBytes;
+    }
+
+    {
+        std::lock_guard<std::mutex> lock(cachesMutex_);
+        for (auto cache : caches_) {
+            pooledBytes -= cache->Take(blocks);
+        }
+    }
+
+    FreeBlocks(blocks);
+}
+
+// Pooled Tensor Buffers
+// A TensorBuffer over a pooled block, which returns the block to the pool when the last tensor
+// referring to it lets go
+
+class PooledTensorBuffer : public tensorflow::TensorBuffer {
+public:
+    PooledTensorBuffer(PoolKey key, void *data, size_t size)
+            : TensorBuffer(data), key_(std::move(key)), size_(size) {}
+
+    ~PooledTensorBuffer() override {
+        TensorPool::Get().Release(key_, data(), size_);
+    }
+
+    size_t size() const override {
+        return size_;
+    }
+
+    TensorBuffer* root_buffer() override {
+        return this;
+    }
+
+    void FillAllocationDescription(tensorflow::AllocationDescription* proto) const override {
+        proto->set_requested_bytes(size_);
+        proto->set_allocator_name("TensorPool");
+    }
+
+private:
+    const PoolKey key_;
+    const size_t size_;
+};
+
+tensorflow::Tensor AllocatePooledTensor(tensorflow::DataType dtype, const tensorflow::TensorShape &shape) {
+    size_t size = tensorflow::DataTypeSize(dtype) * shape.num_elements();
+
+    if (!tensorflow::DataTypeCanUseMemcpy(dtype) || size == 0) {
+        return tensorflow::Tensor(dtype, shape);
+    }
+
+    PoolKey key{dtype, std::vector<tensorflow::int64>(shape.dim_sizes().begin(), shape.dim_sizes().end())};
+    auto &pool = TensorPool::Get();
+
+    void *data = pool.Allocate(key, size);
+    auto buffer = new PooledTensorBuffer(std::move(key), data, size);
+
+    tensorflow::Tensor tensor(dtype, shape, buffer);
+    buffer->Unref();
+
+    return tensor;
+}
+
+// Java Native Interface
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_TensorPool_setMaxBytes(JNIEnv *env, jclass clazz, jlong bytes) {
+    TensorPool::Get().SetMaxBytes(bytes);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_TensorPool_getMaxBytes(JNIEnv *env, jclass clazz) {
+    return TensorPool::Get().maxBytes;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_TensorPool_getPooledBytes(JNIEnv *env, jclass clazz) {
+    return TensorPool::Get().pooledBytes;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_TensorPool_getHitCount(JNIEnv *env, jclass clazz) {
+    return TensorPool::Get().hits;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_ai_doc_tensorflow_TensorPool_getMissCount(JNIEnv *env, jclass clazz) {
+    return TensorPool::Get().misses;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_ai_doc_tensorflow_TensorPool_clear(JNIEnv *env, jclass clazz) {
+    TensorPool::Get().Clear();
+}
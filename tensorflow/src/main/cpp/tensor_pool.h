@@ -0,0 +1,36 @@
+/*
+ * tensor_pool.h
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow on 10/18/26
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef TENSORIO_TENSORFLOW_TENSOR_POOL_H
+#define TENSORIO_TENSORFLOW_TENSOR_POOL_H
+
+#include "tensorflow/core/framework/tensor.h"
+
+/**
+ * Allocates a tensor whose memory is recycled through the tensor pool. When the last tensor
+ * referring to the memory is destroyed the memory is returned to the pool rather than freed, and
+ * the next allocation with the same data type and shape reuses it. Types that cannot be copied
+ * with memcpy, such as strings, are allocated normally. The memory is uninitialized, as it is for
+ * any newly allocated tensor.
+ */
+
+tensorflow::Tensor AllocatePooledTensor(tensorflow::DataType dtype, const tensorflow::TensorShape &shape);
+
+#endif //TENSORIO_TENSORFLOW_TENSOR_POOL_H
@@ -22,20 +22,54 @@
 package ai.doc.tensorflow;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import androidx.annotation.NonNull;
 
 public class AndroidAssets {
 
+    /** The name of the manifest written next to an extracted bundle, see extractBundle */
+
+    public static final String MANIFEST_FILENAME = ".tiobundle-manifest";
+
+    /** The size of the buffer used to copy assets */
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
     /**
      * Reads a UTF_8 text file in the assets directory and returns its String contents
      *
@@ -92,10 +126,36 @@ public class AndroidAssets {
     }
 
     private static void copyFile(AssetManager assetManager, String filename, File destination) throws IOException {
+
+        // Assets stored uncompressed can be copied channel to channel without passing through a buffer
+
+        AssetFileDescriptor fd = null;
+        try {
+            fd = assetManager.openFd(filename);
+        } catch (FileNotFoundException e) {
+            // Compressed assets have no file descriptor and are copied through a stream
+        }
+
+        if (fd != null) {
+            try (FileChannel in = fd.createInputStream().getChannel();
+                 FileChannel out = new FileOutputStream(destination).getChannel()) {
+                long start = fd.getStartOffset();
+                long length = fd.getLength();
+                long position = 0;
+
+                while (position < length) {
+                    position += in.transferTo(start + position, length - position, out);
+                }
+            } finally {
+                fd.close();
+            }
+            return;
+        }
+
         InputStream in = assetManager.open(filename);
         OutputStream out = new FileOutputStream(destination);
 
-        byte[] buffer = new byte[1024];
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
         int read;
 
         while ((read = in.read(buffer)) != -1) {
@@ -109,4 +169,361 @@ public class AndroidAssets {
         out.close();
         out = null;
     }
+
+    /**
+     * Extracts a bundle in the assets directory to the target destination, copying only the files
+     * that have changed since it was last extracted. A manifest of each file's size and SHA-256
+     * hash is written next to the extracted files, and files whose size and hash match the
+     * manifest are kept as they are. Changed files are copied in parallel.
+     *
+     * The manifest also records the app's version code and last update time. Assets cannot change
+     * without the app being updated, so while those match, files of the recorded size are kept
+     * without reading the assets at all, and assets are only hashed after an update.
+     *
+     * A new extraction is assembled in a temporary directory next to the destination, linking
+     * unchanged files rather than moving them, and then renamed into place, so an interrupted
+     * extraction never leaves a partially written bundle at the destination. An extraction killed
+     * between moving the previous bundle aside and renaming the new one into place is recovered
+     * the next time the bundle is extracted.
+     *
+     * @param context The context containing the bundle to extract
+     * @param filename The name of the bundle asset, a directory
+     * @param destination The target destination directory to extract the bundle to
+     * @throws IOException when any part of the extraction goes wrong
+     */
+
+    public static void extractBundle(@NonNull Context context, @NonNull final String filename, @NonNull final File destination) throws IOException {
+        final AssetManager assetManager = context.getAssets();
+
+        // Restore a previous extraction that was moved aside when the process was killed
+
+        File moved = new File(destination.getPath() + ".old");
+        if (!destination.exists() && moved.exists() && !moved.renameTo(destination)) {
+            throw new IOException("Unable to restore " + moved.getPath());
+        }
+
+        List<String> paths = new ArrayList<>();
+        listFiles(assetManager, filename, "", paths);
+
+        final String stamp = packageStamp(context);
+        final Manifest manifest = readManifest(new File(destination, MANIFEST_FILENAME));
+        final Map<String, ManifestEntry> previous = manifest.entries;
+        final Map<String, ManifestEntry> current = new ConcurrentHashMap<>();
+        final List<String> changed = Collections.synchronizedList(new ArrayList<String>());
+
+        // While the app is unchanged its assets are too, so extracted files of the recorded size
+        // are kept without being read, and only the remaining assets are hashed
+
+        boolean sameApp = stamp != null && stamp.equals(manifest.stamp);
+        List<String> unverified = new ArrayList<>();
+
+        for (String path : paths) {
+            ManifestEntry extracted = previous.get(path);
+            if (sameApp && extracted != null && new File(destination, path).length() == extracted.size) {
+                current.put(path, extracted);
+            } else {
+                unverified.add(path);
+            }
+        }
+
+        if (unverified.isEmpty() && previous.size() == current.size()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        try {
+            // Hash the remaining assets and compare them to what was extracted last time
+
+            List<Callable<Void>> hashes = new ArrayList<>();
+
+            for (final String path : unverified) {
+                hashes.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        ManifestEntry entry = hashAsset(assetManager, filename + "/" + path);
+                        ManifestEntry extracted = previous.get(path);
+                        File file = new File(destination, path);
+
+                        current.put(path, entry);
+
+                        if (!entry.equals(extracted) || file.length() != entry.size) {
+                            changed.add(path);
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            invokeAll(executor, hashes);
+
+            if (changed.isEmpty() && previous.size() == current.size()) {
+                if (!sameApp) {
+                    writeManifest(new File(destination, MANIFEST_FILENAME), stamp, current);
+                }
+                return;
+            }
+
+            // Assemble the new extraction in a temporary directory, linking unchanged files from
+            // the destination and copying changed ones. The destination is left untouched, so a
+            // failure here leaves the previous extraction in place.
+
+            final File temp = new File(destination.getPath() + ".tmp");
+            deleteRecursive(temp);
+
+            List<Callable<Void>> copies = new ArrayList<>();
+
+            for (final String path : paths) {
+                final File target = new File(temp, path);
+                mkdirs(target.getParentFile());
+
+                if (!changed.contains(path)) {
+                    final File source = new File(destination, path);
+                    copies.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            linkOrCopy(source, target);
+                            return null;
+                        }
+                    });
+                    continue;
+                }
+
+                copies.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        copyFile(assetManager, filename + "/" + path, target);
+                        return null;
+                    }
+                });
+            }
+
+            try {
+                invokeAll(executor, copies);
+                writeManifest(new File(temp, MANIFEST_FILENAME), stamp, current);
+            } catch (IOException e) {
+                deleteRecursive(temp);
+                throw e;
+            }
+
+            // Swap the new extraction into place, restoring the previous one if that fails
+
+            File old = new File(destination.getPath() + ".old");
+            deleteRecursive(old);
+
+            if (destination.exists() && !destination.renameTo(old)) {
+                throw new IOException("Unable to move " + destination.getPath() + " aside");
+            }
+            if (!temp.renameTo(destination)) {
+                if (old.exists()) {
+                    old.renameTo(destination);
+                }
+                throw new IOException("Unable to move " + temp.getPath() + " to " + destination.getPath());
+            }
+
+            deleteRecursive(old);
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** The app's version and install time when a bundle was extracted, and its extracted files */
+
+    private static class Manifest {
+        String stamp;
+        final Map<String, ManifestEntry> entries = new HashMap<>();
+    }
+
+    /** The size and content hash of an extracted file */
+
+    private static class ManifestEntry {
+        final long size;
+        final String sha256;
+
+        ManifestEntry(long size, String sha256) {
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ManifestEntry)) {
+                return false;
+            }
+            ManifestEntry other = (ManifestEntry) o;
+            return size == other.size && sha256.equals(other.sha256);
+        }
+
+        @Override
+        public int hashCode() {
+            return sha256.hashCode();
+        }
+    }
+
+    /** Lists the files in an asset directory by their path relative to it */
+
+    private static void listFiles(AssetManager assetManager, String root, String path, List<String> paths) throws IOException {
+        String assetPath = path.isEmpty() ? root : root + "/" + path;
+        String assets[] = assetManager.list(assetPath);
+
+        if ( assets == null ) {
+            throw new FileNotFoundException();
+        }
+
+        if ( assets.length == 0 ) {
+            paths.add(path);
+        } else {
+            for (String asset : assets) {
+                listFiles(assetManager, root, path.isEmpty() ? asset : path + "/" + asset, paths);
+            }
+        }
+    }
+
+    private static ManifestEntry hashAsset(AssetManager assetManager, String filename) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long size = 0;
+        int read;
+
+        try (InputStream in = assetManager.open(filename)) {
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return new ManifestEntry(size, hex.toString());
+    }
+
+    /** Identifies the installed version of the app, or returns null if it cannot be read */
+
+    @SuppressWarnings("deprecation")
+    private static String packageStamp(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            long versionCode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? info.getLongVersionCode() : info.versionCode;
+            return versionCode + "-" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a manifest of a "stamp app-version" line followed by "sha256 size path" lines,
+     * returning an empty manifest if there is none
+     */
+
+    private static Manifest readManifest(File file) throws IOException {
+        Manifest manifest = new Manifest();
+
+        if (!file.exists()) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", 3);
+                if (fields.length == 2 && fields[0].equals("stamp")) {
+                    manifest.stamp = fields[1];
+                } else if (fields.length == 3) {
+                    manifest.entries.put(fields[2], new ManifestEntry(Long.parseLong(fields[1]), fields[0]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            // A corrupt manifest is treated as no manifest, so everything is extracted again
+            manifest.stamp = null;
+            manifest.entries.clear();
+        }
+
+        return manifest;
+    }
+
+    private static void writeManifest(File file, String stamp, Map<String, ManifestEntry> manifest) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            if (stamp != null) {
+                writer.write("stamp " + stamp + "\n");
+            }
+            for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet()) {
+                writer.write(entry.getValue().sha256 + " " + entry.getValue().size + " " + entry.getKey() + "\n");
+            }
+        }
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Hard links an unchanged file into a new extraction so that it is not copied again, or copies
+     * it if the file system does not support links
+     */
+
+    private static void linkOrCopy(File source, File target) throws IOException {
+        try {
+            Os.link(source.getPath(), target.getPath());
+            return;
+        } catch (ErrnoException e) {
+            // Fall through to a copy
+        }
+
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long length = in.size();
+            long position = 0;
+
+            while (position < length) {
+                position += in.transferTo(position, length - position, out);
+            }
+        }
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir.getPath());
+        }
+    }
+
+    private static void deleteRecursive(File f) throws IOException {
+        if (!f.exists()) {
+            return;
+        }
+
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursive(child);
+                }
+            }
+        }
+
+        if (!f.delete()) {
+            throw new IOException("Unable to delete " + f.getPath());
+        }
+    }
 }
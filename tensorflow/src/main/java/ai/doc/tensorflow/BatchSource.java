@@ -0,0 +1,47 @@
+/*
+ * BatchSource.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+/**
+ * Supplies minibatches to {@link SavedModelBundle#trainSteps(BatchSource, int, String[])}. A source
+ * owns a fixed set of input tensors and writes each batch into them in place, so the same tensors
+ * are fed to every step without being allocated again.
+ */
+
+public interface BatchSource {
+
+    /** Returns the input tensors batches are written to, the same tensors on every call */
+
+    Tensor[] getInputs();
+
+    /** Returns the name of the float32 loss tensor fetched at each step */
+
+    String getLossName();
+
+    /**
+     * Writes the batch for a step into the input tensors, for example with
+     * {@link Tensor#setBytes(java.nio.ByteBuffer)} or by filling a wrapped buffer.
+     *
+     * @return false when there are no more batches, which ends training early
+     */
+
+    boolean nextBatch(int step);
+}
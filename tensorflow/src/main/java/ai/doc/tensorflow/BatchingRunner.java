@@ -0,0 +1,430 @@
+/*
+ * BatchingRunner.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A BatchingRunner runs a {@link SavedModelBundle} whose inputs and outputs have a variable batch
+ * dimension on behalf of many concurrent callers. Requests that arrive together are gathered into a
+ * single batch, up to a maximum number of examples along the 0th dimension or until the oldest
+ * request has waited a maximum amount of time, their inputs are concatenated along the 0th
+ * dimension, the model is run once, and the outputs are split back into each caller's output
+ * tensors. A request with more examples than the maximum is run in a batch of its own.
+ *
+ * Each request is one call to {@link #run(Tensor[], Tensor[])} and may itself hold one or more
+ * examples. Only requests with the same input and output names in the same order are batched
+ * together. The runner does not own the model and does not close it.
+ */
+
+public class BatchingRunner implements AutoCloseable {
+
+    static {
+        NativeLibrary.init();
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        worker.interrupt();
+        worker.join();
+
+        // Fail anything that was still waiting
+
+        List<Request> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+
+        for (Request request : remaining) {
+            request.fail(new IllegalStateException("BatchingRunner is closed"));
+        }
+    }
+
+    // Public Constructor
+
+    /**
+     * Creates a runner for a model
+     *
+     * @param bundle The model to run, whose inputs and outputs all have a batch dimension
+     * @param maxBatchSize The maximum number of examples to run together, summed along the 0th
+     *                     dimension of each request's inputs
+     * @param maxLatencyMicros The longest a request waits for others to join its batch
+     */
+
+    public BatchingRunner(SavedModelBundle bundle, int maxBatchSize, long maxLatencyMicros) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive, got " + maxBatchSize);
+        }
+        if (maxLatencyMicros < 0) {
+            throw new IllegalArgumentException("maxLatencyMicros must not be negative, got " + maxLatencyMicros);
+        }
+
+        this.bundle = bundle;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(maxLatencyMicros);
+
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "BatchingRunner");
+
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Submits a request to be run with others. Input tensors must be backed and the size of their
+     * 0th dimension is the number of examples in the request. Output tensors are filled with this
+     * request's share of the batched outputs once the returned future completes.
+     *
+     * @return A future that completes with the output tensors
+     */
+
+    public Future<Tensor[]> run(Tensor[] inputs, Tensor[] outputs) {
+        if (closed) {
+            throw new IllegalStateException("BatchingRunner is closed");
+        }
+
+        Request request = new Request(inputs, outputs);
+        queue.add(request);
+
+        // A request added after close drained the queue is failed here, and one that close drained
+        // first is failed by close
+
+        if (closed && queue.remove(request)) {
+            request.fail(new IllegalStateException("BatchingRunner is closed"));
+        }
+
+        return request;
+    }
+
+    // Private Variables
+
+    /** The model requests are run on */
+
+    private final SavedModelBundle bundle;
+
+    /** The maximum number of examples in a batch */
+
+    private final int maxBatchSize;
+
+    /** How long the first request in a batch waits for others */
+
+    private final long maxLatencyNanos;
+
+    /** Requests waiting to be batched */
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /** The thread that gathers and runs batches */
+
+    private final Thread worker;
+
+    private volatile boolean closed = false;
+
+    // Private Methods
+
+    private void runLoop() {
+        ArrayDeque<Request> deferred = new ArrayDeque<>();
+        ArrayDeque<Request> skipped = new ArrayDeque<>();
+        List<Request> batch = new ArrayList<>();
+
+        while (!closed) {
+            try {
+                // Start a batch with the oldest request and wait for compatible ones to join it,
+                // until they fill the batch with examples or the oldest request's wait is over.
+                // A compatible request that does not fit closes the batch and waits for the next.
+
+                batch = new ArrayList<>();
+                Request first = deferred.isEmpty() ? queue.take() : deferred.poll();
+                long deadline = first.enqueued + maxLatencyNanos;
+
+                batch.add(first);
+                long examples = first.size;
+                boolean full = examples >= maxBatchSize;
+
+                skipped = new ArrayDeque<>();
+
+                while (!deferred.isEmpty() && !full) {
+                    Request next = deferred.poll();
+                    if (!next.isCompatible(first)) {
+                        skipped.add(next);
+                    } else if (examples + next.size <= maxBatchSize) {
+                        batch.add(next);
+                        examples += next.size;
+                        full = examples >= maxBatchSize;
+                    } else {
+                        skipped.add(next);
+                        full = true;
+                    }
+                }
+
+                while (!full) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    if (!next.isCompatible(first)) {
+                        skipped.add(next);
+                    } else if (examples + next.size <= maxBatchSize) {
+                        batch.add(next);
+                        examples += next.size;
+                        full = examples >= maxBatchSize;
+                    } else {
+                        skipped.add(next);
+                        full = true;
+                    }
+                }
+
+                skipped.addAll(deferred);
+                deferred = skipped;
+                skipped = new ArrayDeque<>();
+
+                runBatch(batch);
+                batch.clear();
+
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        // Fail the requests that were being gathered when the runner closed as well as those
+        // waiting for a later batch
+
+        for (Request request : batch) {
+            request.fail(new IllegalStateException("BatchingRunner is closed"));
+        }
+        for (Request request : skipped) {
+            request.fail(new IllegalStateException("BatchingRunner is closed"));
+        }
+        for (Request request : deferred) {
+            request.fail(new IllegalStateException("BatchingRunner is closed"));
+        }
+    }
+
+    private void runBatch(List<Request> batch) {
+        Request first = batch.get(0);
+
+        // A batch of one is run directly
+
+        if (batch.size() == 1) {
+            try {
+                bundle.run(first.inputs, first.outputs);
+                first.complete();
+            } catch (Exception e) {
+                first.fail(e);
+            }
+            return;
+        }
+
+        int inputCount = first.inputs.length;
+        int outputCount = first.outputs.length;
+
+        long[] inputHandles = new long[inputCount];
+        long[] inputNames = new long[inputCount];
+        long[] outputNames = new long[outputCount];
+        long[] sizes = new long[batch.size()];
+
+        Tensor[] batchedOutputs = new Tensor[outputCount];
+
+        // Every request's tensors are held open while their handles are used directly
+
+        Tensor[][] held = new Tensor[batch.size() * 2][];
+        for (int i = 0; i < batch.size(); i++) {
+            held[i * 2] = batch.get(i).inputs;
+            held[i * 2 + 1] = batch.get(i).outputs;
+        }
+
+        boolean acquired = false;
+
+        try {
+            Tensor.acquireAll(held);
+            acquired = true;
+
+            // Concatenate the inputs of every request along the 0th dimension
+
+            for (int i = 0; i < batch.size(); i++) {
+                sizes[i] = batch.get(i).inputs[0].getShape()[0];
+            }
+
+            for (int j = 0; j < inputCount; j++) {
+                long[] handles = new long[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    handles[i] = batch.get(i).inputs[j].handle();
+                }
+                inputHandles[j] = concat(handles);
+                inputNames[j] = SavedModelBundle.intern(first.inputs[j].getName());
+            }
+
+            for (int j = 0; j < outputCount; j++) {
+                Tensor output = first.outputs[j];
+                batchedOutputs[j] = new Tensor(output.getDataType(), output.getShape(), output.isScalar(), output.getName());
+                outputNames[j] = SavedModelBundle.intern(output.getName());
+            }
+
+            // Run once and split the outputs back to each request
+
+            bundle.run(inputHandles, inputNames, batchedOutputs, outputNames);
+
+            for (int j = 0; j < outputCount; j++) {
+                Tensor[] destinations = new Tensor[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    destinations[i] = batch.get(i).outputs[j];
+                }
+                split(batchedOutputs[j].handle(), sizes, destinations);
+            }
+
+            for (Request request : batch) {
+                request.complete();
+            }
+
+        } catch (Exception e) {
+            for (Request request : batch) {
+                request.fail(e);
+            }
+        } finally {
+            if (acquired) {
+                Tensor.releaseAll(held);
+            }
+            for (long handle : inputHandles) {
+                if (handle != 0) {
+                    delete(handle);
+                }
+            }
+            for (Tensor output : batchedOutputs) {
+                if (output != null) {
+                    try {
+                        output.close();
+                    } catch (Exception ignored) { }
+                }
+            }
+        }
+    }
+
+    /** A single caller's request, which is also the future it waits on */
+
+    private static class Request implements Future<Tensor[]> {
+        final Tensor[] inputs;
+        final Tensor[] outputs;
+        final long enqueued = System.nanoTime();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Exception error;
+
+        /** The number of examples in the request, the size of its inputs' 0th dimension */
+        final long size;
+
+        Request(Tensor[] inputs, Tensor[] outputs) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+
+            int[] shape = inputs.length > 0 ? inputs[0].getShape() : null;
+            this.size = shape != null && shape.length > 0 ? shape[0] : 1;
+        }
+
+        /** Requests may share a batch when they feed and fetch the same tensors in the same order */
+
+        boolean isCompatible(Request other) {
+            return Arrays.equals(names(inputs), names(other.inputs)) && Arrays.equals(names(outputs), names(other.outputs));
+        }
+
+        private static String[] names(Tensor[] tensors) {
+            String[] names = new String[tensors.length];
+            for (int i = 0; i < tensors.length; i++) {
+                names[i] = tensors[i].getName();
+            }
+            return names;
+        }
+
+        void complete() {
+            done.countDown();
+        }
+
+        void fail(Exception e) {
+            error = e;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Tensor[] get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public Tensor[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        private Tensor[] result() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return outputs;
+        }
+    }
+
+    // Java Native Interface
+
+    /** Concatenates backed tensors along their 0th dimension into a new tensor and returns its pointer */
+
+    private static native long concat(long[] handles);
+
+    /** Splits a tensor along its 0th dimension into the output tensors */
+
+    private static native void split(long handle, long[] sizes, Tensor[] outputs);
+
+    /** Frees a tensor created by concat */
+
+    private static native void delete(long handle);
+}
@@ -0,0 +1,290 @@
+/*
+ * BundleDescriptor.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+import static ai.doc.tensorflow.SavedModelBundle.Mode;
+
+/**
+ * An immutable description of a .tiobundle read once from its model.json: the model's name and
+ * identity, the specs of its inputs and outputs, its training ops, and where its modes live.
+ */
+
+public final class BundleDescriptor {
+
+    /** The name of the file describing a bundle */
+
+    public static final String MODEL_JSON = "model.json";
+
+    /** Reads the model.json in a bundle directory */
+
+    public static BundleDescriptor parse(@NonNull File bundleDir) throws IOException {
+        File file = new File(bundleDir, MODEL_JSON);
+        byte[] buffer = new byte[(int) file.length()];
+
+        try (InputStream is = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < buffer.length && (read = is.read(buffer, offset, buffer.length - offset)) != -1) {
+                offset += read;
+            }
+        }
+
+        return parse(bundleDir, new String(buffer, StandardCharsets.UTF_8));
+    }
+
+    /** Parses the contents of a bundle's model.json */
+
+    public static BundleDescriptor parse(@NonNull File bundleDir, @NonNull String json) throws IOException {
+        try {
+            return new BundleDescriptor(bundleDir, new JSONObject(json));
+        } catch (JSONException e) {
+            throw new IOException("Unable to parse " + MODEL_JSON + " in " + bundleDir.getPath(), e);
+        }
+    }
+
+    // Accessors
+
+    /** Returns the bundle directory */
+
+    public File getBundleDir() {
+        return bundleDir;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /** Returns true if the model takes and produces quantized values */
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /** Returns the modes the bundle declares, such as "predict" and "train", "predict" if it declares none */
+
+    public List<String> getModes() {
+        return modes;
+    }
+
+    /** Returns the directory named by the model's "file" entry */
+
+    public File getModelDir() {
+        return new File(bundleDir, modelFile);
+    }
+
+    /**
+     * Returns the saved model directory for a mode, which is the model's "file" entry when the
+     * bundle declares the mode, "predict" for serving and "train" for training
+     *
+     * @throws IllegalArgumentException if the bundle does not declare the mode
+     */
+
+    public File getModeDir(Mode mode) {
+        String name = mode == Mode.Serve ? "predict" : "train";
+        if (!modes.contains(name)) {
+            throw new IllegalArgumentException("Bundle " + bundleDir.getPath() + " does not support mode " + name + ", its modes are " + modes);
+        }
+        return getModelDir();
+    }
+
+    public List<TensorSpec> getInputs() {
+        return inputs;
+    }
+
+    public List<TensorSpec> getOutputs() {
+        return outputs;
+    }
+
+    /** Returns the input spec with name, or null if there is none */
+
+    public TensorSpec getInput(String name) {
+        return find(inputs, name);
+    }
+
+    /** Returns the output spec with name, or null if there is none */
+
+    public TensorSpec getOutput(String name) {
+        return find(outputs, name);
+    }
+
+    /** Returns the names of the ops run for a training step, empty if the model is not trainable */
+
+    public List<String> getTrainOps() {
+        return trainOps;
+    }
+
+    /** Creates preallocated tensors for every input with the batch dimension set to batchSize */
+
+    public Tensor[] newInputTensors(int batchSize) {
+        return newTensors(inputs, batchSize);
+    }
+
+    /** Creates preallocated tensors for every output with the batch dimension set to batchSize */
+
+    public Tensor[] newOutputTensors(int batchSize) {
+        return newTensors(outputs, batchSize);
+    }
+
+    // Private
+
+    private final File bundleDir;
+    private final String name;
+    private final String identifier;
+    private final String version;
+    private final String modelFile;
+    private final boolean quantized;
+    private final List<String> modes;
+    private final List<TensorSpec> inputs;
+    private final List<TensorSpec> outputs;
+    private final List<String> trainOps;
+
+    private BundleDescriptor(File bundleDir, JSONObject json) throws JSONException {
+        JSONObject model = json.getJSONObject("model");
+
+        this.bundleDir = bundleDir;
+        this.name = json.optString("name", "");
+        this.identifier = json.optString("id", "");
+        this.version = json.optString("version", "");
+        this.modelFile = model.optString("file", "predict");
+        this.quantized = model.optBoolean("quantized", false);
+        this.modes = model.has("modes") ? strings(model.getJSONArray("modes")) : Collections.singletonList("predict");
+        this.inputs = specs(json.optJSONArray("inputs"), quantized);
+        this.outputs = specs(json.optJSONArray("outputs"), quantized);
+
+        JSONObject train = json.optJSONObject("train");
+        this.trainOps = train == null ? Collections.<String>emptyList() : strings(train.optJSONArray("ops"));
+    }
+
+    private static List<String> strings(JSONArray array) throws JSONException {
+        List<String> strings = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                strings.add(array.getString(i));
+            }
+        }
+        return Collections.unmodifiableList(strings);
+    }
+
+    private static List<TensorSpec> specs(JSONArray array, boolean quantized) throws JSONException {
+        List<TensorSpec> specs = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                specs.add(spec(array.getJSONObject(i), quantized));
+            }
+        }
+        return Collections.unmodifiableList(specs);
+    }
+
+    /**
+     * Reads a single input or output. Images are float32 unless the model is quantized, in which
+     * case they are uint8, and other tensors are float32 unless they declare a dtype.
+     */
+
+    private static TensorSpec spec(JSONObject json, boolean quantized) throws JSONException {
+        String name = json.getString("name");
+        String type = json.optString("type", "array");
+
+        JSONArray jsonShape = json.getJSONArray("shape");
+        int[] shape = new int[jsonShape.length()];
+        for (int i = 0; i < shape.length; i++) {
+            shape[i] = jsonShape.getInt(i);
+        }
+
+        DataType dtype;
+        if (json.has("dtype")) {
+            dtype = dataType(json.getString("dtype"));
+        } else if (type.equals("image") && quantized) {
+            dtype = DataType.UINT8;
+        } else {
+            dtype = DataType.FLOAT32;
+        }
+
+        return new TensorSpec(name, dtype, shape, type.equals("scalar"));
+    }
+
+    private static DataType dataType(String dtype) throws JSONException {
+        switch (dtype) {
+            case "float32":
+                return DataType.FLOAT32;
+            case "int32":
+                return DataType.INT32;
+            case "uint8":
+                return DataType.UINT8;
+            case "int64":
+                return DataType.INT64;
+            case "string":
+                return DataType.STRING;
+            case "float16":
+                return DataType.FLOAT16;
+            case "bfloat16":
+                return DataType.BFLOAT16;
+            case "float64":
+                return DataType.FLOAT64;
+            case "int8":
+                return DataType.INT8;
+            case "int16":
+                return DataType.INT16;
+            case "bool":
+                return DataType.BOOL;
+        }
+        throw new JSONException("Unsupported dtype " + dtype);
+    }
+
+    private static TensorSpec find(List<TensorSpec> specs, String name) {
+        for (TensorSpec spec : specs) {
+            if (spec.getName().equals(name)) {
+                return spec;
+            }
+        }
+        return null;
+    }
+
+    private static Tensor[] newTensors(List<TensorSpec> specs, int batchSize) {
+        Tensor[] tensors = new Tensor[specs.size()];
+        for (int i = 0; i < tensors.length; i++) {
+            tensors[i] = specs.get(i).newTensor(batchSize);
+        }
+        return tensors;
+    }
+}
@@ -37,7 +37,25 @@ public enum DataType {
     INT64(9),
 
     /** Strings. DT_STRING = 7 */
-    STRING(7);
+    STRING(7),
+
+    /** 16-bit half precision floating point. DT_HALF = 19 */
+    FLOAT16(19),
+
+    /** 16-bit brain floating point, float32 truncated to 16 bits. DT_BFLOAT16 = 14 */
+    BFLOAT16(14),
+
+    /** 64-bit double precision floating point. DT_DOUBLE = 2 */
+    FLOAT64(2),
+
+    /** 8-bit signed integer. DT_INT8 = 6 */
+    INT8(6),
+
+    /** 16-bit signed integer. DT_INT16 = 5 */
+    INT16(5),
+
+    /** Booleans, one byte each. DT_BOOL = 10 */
+    BOOL(10);
 
     private final int value;
 
@@ -59,6 +77,18 @@ public enum DataType {
                 return 8;
             case STRING:
                 return -1;
+            case FLOAT16:
+                return 2;
+            case BFLOAT16:
+                return 2;
+            case FLOAT64:
+                return 8;
+            case INT8:
+                return 1;
+            case INT16:
+                return 2;
+            case BOOL:
+                return 1;
         }
         throw new IllegalArgumentException(
                 "DataType error: DataType " + this + " is not supported yet");
@@ -98,6 +128,18 @@ public enum DataType {
                 return "long";
             case STRING:
                 return "string";
+            case FLOAT16:
+                return "half";
+            case BFLOAT16:
+                return "bfloat16";
+            case FLOAT64:
+                return "double";
+            case INT8:
+                return "byte";
+            case INT16:
+                return "short";
+            case BOOL:
+                return "bool";
         }
         throw new IllegalArgumentException(
                 "DataType error: DataType " + this + " is not supported yet");
@@ -0,0 +1,120 @@
+/*
+ * HandleLifecycle.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Guards an object's native handle against being freed while it is in use. Every call that uses
+ * the handle acquires the lifecycle first and releases it when done, and any number of calls may
+ * hold it at once. Closing the lifecycle rejects new calls, waits for those in progress to
+ * release it, and succeeds only once, so the handle is freed exactly once and never while in use.
+ *
+ * The state is a single atomic word holding a closed bit and the number of calls in progress.
+ * Acquiring and releasing never block, and only close waits.
+ */
+
+final class HandleLifecycle {
+
+    private static final int CLOSED = 0x80000000;
+    private static final int COUNT = ~CLOSED;
+
+    HandleLifecycle(String owner) {
+        this.owner = owner;
+    }
+
+    /** Registers a call in progress, throwing if the lifecycle is closed */
+
+    void acquire() {
+        while (true) {
+            int s = state.get();
+            if ((s & CLOSED) != 0) {
+                throw new IllegalStateException(owner + " is closed");
+            }
+            if (state.compareAndSet(s, s + 1)) {
+                return;
+            }
+        }
+    }
+
+    /** Ends a call in progress, waking a close that is waiting on it */
+
+    void release() {
+        if (state.decrementAndGet() == CLOSED) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /** Returns true if the lifecycle has been closed */
+
+    boolean isClosed() {
+        return (state.get() & CLOSED) != 0;
+    }
+
+    /**
+     * Rejects new calls and waits for those in progress to finish.
+     *
+     * @return true the first time it is called, when the caller should free the handle, and
+     * false after that
+     */
+
+    boolean close() {
+        while (true) {
+            int s = state.get();
+            if ((s & CLOSED) != 0) {
+                return false;
+            }
+            if (state.compareAndSet(s, s | CLOSED)) {
+                break;
+            }
+        }
+
+        boolean interrupted = false;
+
+        synchronized (this) {
+            while ((state.get() & COUNT) != 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return true;
+    }
+
+    // Private
+
+    /** The name used in exceptions */
+
+    private final String owner;
+
+    /** The closed bit and the number of calls in progress */
+
+    private final AtomicInteger state = new AtomicInteger(0);
+}
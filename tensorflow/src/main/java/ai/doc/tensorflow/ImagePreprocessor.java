@@ -0,0 +1,177 @@
+/*
+ * ImagePreprocessor.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package ai.doc.tensorflow;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An ImagePreprocessor writes an image's pixels into one image of a batch in a FLOAT32 or UINT8
+ * tensor with shape [batch, height, width, 3], converting them natively in a single pass without
+ * an intermediate buffer. Pixels are read from the packed ARGB ints returned by
+ * `Bitmap.getPixels()` or from a direct buffer of RGBA bytes filled by
+ * `Bitmap.copyPixelsToBuffer()`.
+ *
+ * Each channel value in the range [0,255] is normalized as `value * scale + bias`, and values
+ * written to a UINT8 tensor are rounded and clamped. An image that is not the tensor's size is
+ * resized with bilinear interpolation, after first being center cropped to the tensor's aspect
+ * ratio if you ask for it. Use a {@link ImagePreprocessor.Builder} to create a preprocessor, which
+ * may then be shared across threads.
+ */
+
+public final class ImagePreprocessor {
+
+    /** The order in which color channels are written to the tensor */
+
+    public enum ChannelOrder {
+        RGB,
+        BGR
+    }
+
+    public static class Builder {
+        private final float[] scale = {1, 1, 1};
+        private final float[] bias = {0, 0, 0};
+        private ChannelOrder channelOrder = ChannelOrder.RGB;
+        private boolean centerCrop = false;
+
+        /** The same scale and bias for every channel, for example 1/255 and 0 for values in [0,1] */
+
+        public Builder setNormalization(float scale, float bias) {
+            return setScale(scale, scale, scale).setBias(bias, bias, bias);
+        }
+
+        /** The scale for each color channel, in red, green, blue order */
+
+        public Builder setScale(float red, float green, float blue) {
+            scale[0] = red;
+            scale[1] = green;
+            scale[2] = blue;
+            return this;
+        }
+
+        /** The bias for each color channel, in red, green, blue order */
+
+        public Builder setBias(float red, float green, float blue) {
+            bias[0] = red;
+            bias[1] = green;
+            bias[2] = blue;
+            return this;
+        }
+
+        /** The order in which the model expects color channels, RGB by default */
+
+        public Builder setChannelOrder(ChannelOrder channelOrder) {
+            this.channelOrder = channelOrder;
+            return this;
+        }
+
+        /** Crop the image to the tensor's aspect ratio around its center before resizing it */
+
+        public Builder setCenterCrop(boolean centerCrop) {
+            this.centerCrop = centerCrop;
+            return this;
+        }
+
+        public ImagePreprocessor build() {
+            return new ImagePreprocessor(this);
+        }
+    }
+
+    private final float[] scale;
+    private final float[] bias;
+    private final ChannelOrder channelOrder;
+    private final boolean centerCrop;
+
+    private ImagePreprocessor(Builder builder) {
+        this.scale = builder.scale.clone();
+        this.bias = builder.bias.clone();
+        this.channelOrder = builder.channelOrder;
+        this.centerCrop = builder.centerCrop;
+    }
+
+    /**
+     * Writes packed ARGB pixels into the image at batchIndex in the tensor
+     *
+     * @param pixels width * height ARGB pixels in row major order, as returned by `Bitmap.getPixels()`
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param tensor A FLOAT32 or UINT8 tensor with shape [batch, height, width, 3]
+     * @param batchIndex The image in the batch to write
+     */
+
+    public void write(int[] pixels, int width, int height, Tensor tensor, int batchIndex) {
+        checkImage(pixels.length, width, height);
+        tensor.writePixels(pixels, false, width, height, batchIndex, this);
+    }
+
+    /**
+     * Writes RGBA pixels from a direct buffer into the image at batchIndex in the tensor
+     *
+     * @param pixels A direct buffer of width * height * 4 RGBA bytes, as filled by
+     *               `Bitmap.copyPixelsToBuffer()` for an ARGB_8888 bitmap
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param tensor A FLOAT32 or UINT8 tensor with shape [batch, height, width, 3]
+     * @param batchIndex The image in the batch to write
+     */
+
+    public void write(ByteBuffer pixels, int width, int height, Tensor tensor, int batchIndex) {
+        if (!pixels.isDirect()) {
+            throw new IllegalArgumentException("Pixel buffer is not a direct buffer");
+        }
+        checkImage(pixels.capacity() / 4, width, height);
+        tensor.writePixels(pixels, true, width, height, batchIndex, this);
+    }
+
+    public float[] getScale() {
+        return scale.clone();
+    }
+
+    public float[] getBias() {
+        return bias.clone();
+    }
+
+    public ChannelOrder getChannelOrder() {
+        return channelOrder;
+    }
+
+    public boolean getCenterCrop() {
+        return centerCrop;
+    }
+
+    // Package Methods
+
+    float[] scale() {
+        return scale;
+    }
+
+    float[] bias() {
+        return bias;
+    }
+
+    // Private Methods
+
+    private static void checkImage(int pixelCount, int width, int height) {
+        if (width <= 0 || height <= 0 || pixelCount < (long) width * height) {
+            throw new IllegalArgumentException("Expected " + width + " x " + height + " pixels, got " + pixelCount);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * ModelCache.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ai.doc.tensorflow.SavedModelBundle.Mode;
+import static ai.doc.tensorflow.SavedModelBundle.Options;
+
+/**
+ * A ModelCache shares loaded models between callers so that a model is only loaded once while it
+ * is in use. Callers acquire a {@link Lease} on a model by its directory and mode and close the
+ * lease when they are done with it.
+ *
+ * Models no one holds a lease on stay loaded until the cache exceeds its memory budget, at which
+ * point the least recently used idle models are closed. A model's memory is estimated from the
+ * size of its files on disk, which is roughly what its graph and variables occupy once loaded.
+ * Models in use are never evicted, so the budget may be exceeded while they are held.
+ */
+
+public class ModelCache implements AutoCloseable {
+
+    /** A caller's hold on a shared model. Close the lease to release it. */
+
+    public static class Lease implements AutoCloseable {
+        private final ModelCache cache;
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(ModelCache cache, Entry entry) {
+            this.cache = cache;
+            this.entry = entry;
+        }
+
+        /** Returns the shared model. Do not close it yourself. */
+
+        public SavedModelBundle getBundle() {
+            return entry.bundle;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                cache.release(entry);
+            }
+        }
+    }
+
+    /** Creates a cache that keeps idle models loaded up to a budget of native memory in bytes */
+
+    public ModelCache(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /** Acquires a lease on the model in dir with mode, loading it if needed */
+
+    public Lease acquire(File dir, Mode mode) {
+        return acquire(dir, mode, new Options.Builder().build());
+    }
+
+    /**
+     * Acquires a lease on the model in dir with mode, loading it with options if needed. Options
+     * only apply when the model is loaded and are ignored if it is already in the cache.
+     */
+
+    public Lease acquire(File dir, Mode mode, Options options) {
+        Entry entry;
+
+        synchronized (this) {
+            String key = dir.getAbsolutePath() + ":" + mode.c();
+            entry = entries.get(key);
+
+            if (entry == null) {
+                entry = new Entry(key, estimateBytes(dir));
+                entries.put(key, entry);
+                usedBytes += entry.bytes;
+            }
+
+            entry.refCount++;
+        }
+
+        // Load outside the cache's lock so that other models may be acquired meanwhile
+
+        synchronized (entry) {
+            if (entry.bundle == null) {
+                try {
+                    entry.bundle = new SavedModelBundle(dir, mode, options);
+                } catch (RuntimeException e) {
+                    release(entry);
+                    throw e;
+                }
+            }
+        }
+
+        evict();
+        return new Lease(this, entry);
+    }
+
+    /** Returns the estimated native memory used by the models in the cache, in bytes */
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /** Returns the number of models in the cache, whether in use or idle */
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Closes every idle model, regardless of the memory budget */
+
+    public void evictAll() {
+        evict(0);
+    }
+
+    /** Closes every idle model. Models still in use are closed when their last lease is. */
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        evictAll();
+    }
+
+    // Private
+
+    private static class Entry {
+        final String key;
+        final long bytes;
+        int refCount = 0;
+        SavedModelBundle bundle;
+
+        Entry(String key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long memoryBudgetBytes;
+
+    /** Models by path and mode in least recently used order */
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes = 0;
+
+    private boolean closed = false;
+
+    private void release(Entry entry) {
+        synchronized (this) {
+            entry.refCount--;
+        }
+        evict();
+    }
+
+    private void evict() {
+        long budget;
+        synchronized (this) {
+            budget = closed ? 0 : memoryBudgetBytes;
+        }
+        evict(budget);
+    }
+
+    /** Closes idle models, least recently used first, until the cache fits within budget */
+
+    private void evict(long budget) {
+        List<Entry> evicted = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+            while (usedBytes > budget && iterator.hasNext()) {
+                Entry entry = iterator.next().getValue();
+
+                if (entry.refCount == 0) {
+                    iterator.remove();
+                    usedBytes -= entry.bytes;
+                    evicted.add(entry);
+                }
+            }
+        }
+
+        // Closing a model may take a while, so do it outside the cache's lock
+
+        for (Entry entry : evicted) {
+            synchronized (entry) {
+                if (entry.bundle != null) {
+                    try {
+                        entry.bundle.close();
+                    } catch (Exception ignored) {
+                        // The model's memory is released even if its session fails to close
+                    }
+                    entry.bundle = null;
+                }
+            }
+        }
+    }
+
+    /** Estimates a model's native memory from the size of its files */
+
+    private static long estimateBytes(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+
+        long bytes = 0;
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                bytes += estimateBytes(child);
+            }
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * NativeCleaner.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Frees the native handles of objects that were never closed once they are garbage collected. An
+ * object registers its handle with a {@link Deleter} that frees it, and the registration is
+ * cancelled when the object is closed normally. A daemon thread frees the handles of objects that
+ * become unreachable while still registered.
+ *
+ * Deleters must not refer to the object they free, or it will never become unreachable.
+ */
+
+final class NativeCleaner {
+
+    /** Frees a native handle */
+
+    interface Deleter {
+        void delete(long handle);
+    }
+
+    /** A registered handle, freed when its object becomes unreachable */
+
+    static final class Cleanup extends PhantomReference<Object> {
+        private final long handle;
+        private final Deleter deleter;
+
+        private Cleanup(Object referent, long handle, Deleter deleter) {
+            super(referent, QUEUE);
+            this.handle = handle;
+            this.deleter = deleter;
+        }
+
+        /** Cancels the registration when the object frees its handle itself */
+
+        void cancel() {
+            REGISTERED.remove(this);
+            clear();
+        }
+
+        private void clean() {
+            if (REGISTERED.remove(this)) {
+                deleter.delete(handle);
+            }
+        }
+    }
+
+    /** Registers an object's handle to be freed by deleter if the object is never closed */
+
+    static Cleanup register(Object referent, long handle, Deleter deleter) {
+        Cleanup cleanup = new Cleanup(referent, handle, deleter);
+        REGISTERED.add(cleanup);
+        return cleanup;
+    }
+
+    // Private
+
+    private NativeCleaner() {}
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    /** Registrations are held strongly here so that they are enqueued */
+
+    private static final Set<Cleanup> REGISTERED = Collections.newSetFromMap(new ConcurrentHashMap<Cleanup, Boolean>());
+
+    static {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        ((Cleanup) QUEUE.remove()).clean();
+                    } catch (InterruptedException ignored) {
+                        // The cleaner runs for the lifetime of the process
+                    } catch (RuntimeException e) {
+                        // A failure to free one handle should not stop the others from being freed
+                    }
+                }
+            }
+        }, "NativeCleaner");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * NativeMemoryStats.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+/**
+ * Reports the native memory held by tensors and models, for catching leaks under load. Tensor
+ * counts and bytes include every {@link Tensor} that is backed by a TensorFlow tensor, whether it
+ * owns its memory or shares a model's output, and drop when the tensor is closed or collected.
+ */
+
+public final class NativeMemoryStats {
+
+    static {
+        NativeLibrary.init();
+    }
+
+    private NativeMemoryStats() {}
+
+    /** Returns the number of tensors that are currently backed */
+
+    public static native long getLiveTensorCount();
+
+    /** Returns the bytes currently held by backed tensors */
+
+    public static native long getLiveTensorBytes();
+
+    /** Returns the most bytes held by backed tensors at once since the process started or the peak was reset */
+
+    public static native long getPeakTensorBytes();
+
+    /** Returns the number of models that are currently loaded */
+
+    public static native long getLiveModelCount();
+
+    /** Resets the peak to the bytes currently held */
+
+    public static native void resetPeak();
+}
@@ -0,0 +1,116 @@
+/*
+ * PreparedRun.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+/**
+ * A PreparedRun is a reusable run of a {@link SavedModelBundle} with a fixed set of inputs,
+ * outputs, and target ops. The underlying TensorFlow session resolves the names and prunes the
+ * graph once when the run is prepared, so each call to {@link #run(Tensor[], Tensor[])} only
+ * passes tensors.
+ *
+ * Close a prepared run before you close the model it was prepared from.
+ */
+
+public class PreparedRun implements AutoCloseable {
+
+    static {
+        NativeLibrary.init();
+    }
+
+    /**
+     * Releases the prepared run, waiting for runs on other threads to finish first. The model it
+     * was prepared from must still be open.
+     */
+
+    @Override
+    public void close() throws Exception {
+        if (lifecycle.close()) {
+            bundle.acquire();
+            try {
+                delete();
+            } finally {
+                bundle.release();
+            }
+        }
+    }
+
+    // Package Constructor
+
+    /** Prepares a run of the model, see {@link SavedModelBundle#prepare(String[], String[], String[])} */
+
+    PreparedRun(SavedModelBundle bundle, String[] inputNames, String[] outputNames, String[] targets) {
+        this.bundle = bundle;
+
+        bundle.acquire();
+        try {
+            create(bundle, inputNames, outputNames, targets);
+        } finally {
+            bundle.release();
+        }
+    }
+
+    // Private Variables
+
+    /** The model this run was prepared from, held so that it outlives the run */
+
+    private final SavedModelBundle bundle;
+
+    // Java Native Interface
+
+    /** The pointer to the underlying callable */
+
+    private long handle;
+
+    /** Guards the handle against being freed while it is in use */
+
+    private final HandleLifecycle lifecycle = new HandleLifecycle("PreparedRun");
+
+    /** Makes a callable on the model's session and backs this instance with it */
+
+    private native void create(SavedModelBundle bundle, String[] inputNames, String[] outputNames, String[] targets);
+
+    /** Releases the callable and frees the memory associated with it */
+
+    private native void delete();
+
+    /**
+     * Runs the prepared model. Inputs and outputs are matched by position to the input and output
+     * names the run was prepared with, and the names of the tensors themselves are ignored.
+     */
+
+    public void run(Tensor[] inputs, Tensor[] outputs) {
+        lifecycle.acquire();
+        try {
+            bundle.acquire(inputs, outputs);
+            try {
+                runCallable(inputs, outputs);
+            } finally {
+                bundle.release(inputs, outputs);
+            }
+        } finally {
+            lifecycle.release();
+        }
+    }
+
+    /** Runs the callable with input and output tensors */
+
+    private native void runCallable(Tensor[] inputs, Tensor[] outputs);
+}
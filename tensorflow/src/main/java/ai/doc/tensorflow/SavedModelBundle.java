@@ -22,6 +22,18 @@ package ai.doc.tensorflow;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** Manages access to an underlying saved model bundle */
 
@@ -49,13 +61,246 @@ public class SavedModelBundle implements AutoCloseable {
         }
     }
 
+    /** The graph optimizer level, see OptimizerOptions in config.proto */
+
+    public enum OptimizerLevel {
+        /** No graph optimizations */
+        L0(-1),
+
+        /** Common subexpression elimination and constant folding, the default */
+        L1(0);
+
+        private final int value;
+
+        OptimizerLevel(int value) {
+            this.value = value;
+        }
+
+        int c() {
+            return value;
+        }
+    }
+
+    /**
+     * Options for the session a model is loaded into, see ConfigProto in config.proto. Use a
+     * {@link Options.Builder} to create options, and unset values keep TensorFlow's defaults.
+     */
+
+    public static class Options {
+
+        public static class Builder {
+            private int intraOpParallelismThreads = 0;
+            private int interOpParallelismThreads = 0;
+            private boolean usePerSessionThreads = false;
+            private OptimizerLevel optimizerLevel = OptimizerLevel.L1;
+            private boolean constantFolding = true;
+            private boolean grappler = true;
+            private boolean allowSoftPlacement = false;
+            private int warmupIterations = 0;
+            private int warmupBatchSize = 1;
+            private String warmupSignature = "serving_default";
+            private List<TensorSpec> warmupInputs;
+            private List<TensorSpec> warmupOutputs;
+
+            /** The number of threads used to parallelize a single op, 0 lets TensorFlow choose */
+
+            public Builder setIntraOpParallelismThreads(int threads) {
+                this.intraOpParallelismThreads = threads;
+                return this;
+            }
+
+            /** The number of threads used to run independent ops, 0 lets TensorFlow choose */
+
+            public Builder setInterOpParallelismThreads(int threads) {
+                this.interOpParallelismThreads = threads;
+                return this;
+            }
+
+            /** Give the session its own thread pools rather than sharing them with other sessions */
+
+            public Builder setUsePerSessionThreads(boolean usePerSessionThreads) {
+                this.usePerSessionThreads = usePerSessionThreads;
+                return this;
+            }
+
+            /** The level of the graph optimizer that runs when the graph is first executed */
+
+            public Builder setOptimizerLevel(OptimizerLevel optimizerLevel) {
+                this.optimizerLevel = optimizerLevel;
+                return this;
+            }
+
+            /**
+             * Fold constant subgraphs, in both the graph optimizer and grappler. The graph optimizer
+             * always folds at {@link OptimizerLevel#L1}, so disabling folding runs it at
+             * {@link OptimizerLevel#L0} with common subexpression elimination still enabled.
+             */
+
+            public Builder setConstantFolding(boolean constantFolding) {
+                this.constantFolding = constantFolding;
+                return this;
+            }
+
+            /** Run grappler, TensorFlow's graph rewriting meta optimizer */
+
+            public Builder setGrappler(boolean grappler) {
+                this.grappler = grappler;
+                return this;
+            }
+
+            /** Place ops on another device when they have no kernel for the requested one */
+
+            public Builder setAllowSoftPlacement(boolean allowSoftPlacement) {
+                this.allowSoftPlacement = allowSoftPlacement;
+                return this;
+            }
+
+            /**
+             * Run the model this many times on zero valued inputs while it loads, so that the
+             * first real run does not pay for executor construction, kernel instantiation, and
+             * memory allocation. Warm-up is off by default.
+             *
+             * @throws IllegalArgumentException if iterations is negative
+             */
+
+            public Builder setWarmupIterations(int iterations) {
+                if (iterations < 0) {
+                    throw new IllegalArgumentException("Warm-up iterations must not be negative, was " + iterations);
+                }
+                this.warmupIterations = iterations;
+                return this;
+            }
+
+            /**
+             * The batch size of warm-up inputs that have a batch dimension, 1 by default
+             *
+             * @throws IllegalArgumentException if batchSize is not positive
+             */
+
+            public Builder setWarmupBatchSize(int batchSize) {
+                if (batchSize <= 0) {
+                    throw new IllegalArgumentException("Warm-up batch size must be positive, was " + batchSize);
+                }
+                this.warmupBatchSize = batchSize;
+                return this;
+            }
+
+            /** The signature whose inputs and outputs warm-up runs, "serving_default" by default */
+
+            public Builder setWarmupSignature(String signatureKey) {
+                this.warmupSignature = signatureKey;
+                return this;
+            }
+
+            /**
+             * Warm up with these inputs and outputs rather than a signature's, for example those
+             * read from a bundle's model.json by {@link BundleDescriptor}
+             */
+
+            public Builder setWarmupSpecs(List<TensorSpec> inputs, List<TensorSpec> outputs) {
+                this.warmupInputs = inputs;
+                this.warmupOutputs = outputs;
+                return this;
+            }
+
+            public Options build() {
+                return new Options(this);
+            }
+        }
+
+        private final int intraOpParallelismThreads;
+        private final int interOpParallelismThreads;
+        private final boolean usePerSessionThreads;
+        private final OptimizerLevel optimizerLevel;
+        private final boolean constantFolding;
+        private final boolean grappler;
+        private final boolean allowSoftPlacement;
+        private final int warmupIterations;
+        private final int warmupBatchSize;
+        private final String warmupSignature;
+        private final List<TensorSpec> warmupInputs;
+        private final List<TensorSpec> warmupOutputs;
+
+        private Options(Builder builder) {
+            this.intraOpParallelismThreads = builder.intraOpParallelismThreads;
+            this.interOpParallelismThreads = builder.interOpParallelismThreads;
+            this.usePerSessionThreads = builder.usePerSessionThreads;
+            this.optimizerLevel = builder.optimizerLevel;
+            this.constantFolding = builder.constantFolding;
+            this.grappler = builder.grappler;
+            this.allowSoftPlacement = builder.allowSoftPlacement;
+            this.warmupIterations = builder.warmupIterations;
+            this.warmupBatchSize = builder.warmupBatchSize;
+            this.warmupSignature = builder.warmupSignature;
+            this.warmupInputs = builder.warmupInputs;
+            this.warmupOutputs = builder.warmupOutputs;
+        }
+
+        public int getIntraOpParallelismThreads() {
+            return intraOpParallelismThreads;
+        }
+
+        public int getInterOpParallelismThreads() {
+            return interOpParallelismThreads;
+        }
+
+        public boolean getUsePerSessionThreads() {
+            return usePerSessionThreads;
+        }
+
+        public OptimizerLevel getOptimizerLevel() {
+            return optimizerLevel;
+        }
+
+        public boolean getConstantFolding() {
+            return constantFolding;
+        }
+
+        public boolean getGrappler() {
+            return grappler;
+        }
+
+        public boolean getAllowSoftPlacement() {
+            return allowSoftPlacement;
+        }
+
+        public int getWarmupIterations() {
+            return warmupIterations;
+        }
+
+        public int getWarmupBatchSize() {
+            return warmupBatchSize;
+        }
+
+        public String getWarmupSignature() {
+            return warmupSignature;
+        }
+
+        public List<TensorSpec> getWarmupInputs() {
+            return warmupInputs;
+        }
+
+        public List<TensorSpec> getWarmupOutputs() {
+            return warmupOutputs;
+        }
+    }
+
     static {
         NativeLibrary.init();
     }
 
+    /**
+     * Unloads the model. Waits for runs on other threads to finish first, rejects runs that start
+     * afterwards, and does nothing if the model is already closed.
+     */
+
     @Override
     public void close() throws Exception {
-        delete();
+        if (lifecycle.close()) {
+            cleanup.cancel();
+            delete(handle);
+            handle = 0;
+        }
     }
 
     // Public Constructor
@@ -63,11 +308,326 @@ public class SavedModelBundle implements AutoCloseable {
     /** Instantiates a model in the Saved Model format with a directory at the file path */
 
     public SavedModelBundle(File file, Mode mode) {
-        create(file.getPath(), mode.c());
+        this(file, mode, new Options.Builder().build());
+    }
+
+    /** Instantiates a model in the Saved Model format and configures its session with options */
+
+    public SavedModelBundle(File file, Mode mode, Options options) {
+        create(file.getPath(), mode.c(),
+                options.intraOpParallelismThreads,
+                options.interOpParallelismThreads,
+                options.usePerSessionThreads,
+                options.optimizerLevel.c(),
+                options.constantFolding,
+                options.grappler,
+                options.allowSoftPlacement);
+
+        // A model that is never closed is unloaded after it is garbage collected
+
+        cleanup = NativeCleaner.register(this, handle, DELETER);
+
+        signatures = Signature.decode(signatureStrings(), signatureInts());
+
+        long[] timings = new long[0];
+
+        if (options.warmupIterations > 0) {
+            try {
+                timings = warmup(options);
+            } catch (RuntimeException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+
+        warmupTimings = timings;
+    }
+
+    /**
+     * Returns the duration of each warm-up run in nanoseconds, in the order they ran, or an empty
+     * array if the model was not warmed up. Compare the last runs to check the model had reached
+     * steady state before serving requests.
+     */
+
+    public long[] getWarmupTimings() {
+        return warmupTimings.clone();
+    }
+
+    /** Returns the model's signatures by key, read from the SavedModel when it was loaded */
+
+    public Map<String, Signature> getSignatures() {
+        return signatures;
+    }
+
+    /** Returns the signature with a key, such as "serving_default", or null if there is none */
+
+    public Signature getSignature(String key) {
+        return signatures.get(key);
     }
 
     public void export(File file) {
-        export(file.getPath());
+        acquire();
+        try {
+            export(file.getPath());
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Restores the model's variables from checkpoints in a directory, such as one written by
+     * {@link #export(File)}, without reloading the graph. Only the variables are read, so the
+     * checkpoint must come from a model with the same graph.
+     */
+
+    public void restore(File file) {
+        acquire();
+        try {
+            restore(file.getPath());
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Exports the model checkpoints to a directory in the background. The variables are
+     * snapshotted before this method returns, so training may continue while the snapshot is
+     * written to a temporary directory next to the destination on a background thread. The
+     * temporary directory is then renamed into place, so an interrupted export never leaves a
+     * partially written checkpoint at the destination. Each export writes to its own temporary
+     * directory, so overlapping exports to the same destination each publish a complete checkpoint.
+     *
+     * @return A future that completes with the destination once the checkpoint is in place
+     */
+
+    public Future<File> exportAsync(final File file) {
+        acquire();
+        final AtomicLong snapshot;
+        try {
+            snapshot = new AtomicLong(snapshot());
+        } finally {
+            release();
+        }
+
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                long handle = snapshot.getAndSet(0);
+                try {
+                    File temp = new File(file.getPath() + ".tmp" + exportCount.incrementAndGet());
+                    deleteDirectory(temp);
+
+                    if (!temp.mkdirs()) {
+                        throw new IOException("Unable to create " + temp.getPath());
+                    }
+
+                    try {
+                        writeSnapshot(handle, temp.getPath());
+                        publish(temp, file);
+                    } finally {
+                        deleteDirectory(temp);
+                    }
+
+                    return file;
+                } finally {
+                    deleteSnapshot(handle);
+                }
+            }
+        }) {
+            @Override
+            protected void done() {
+                // Frees the snapshot if the export was cancelled before it ran
+
+                long handle = snapshot.getAndSet(0);
+                if (handle != 0) {
+                    deleteSnapshot(handle);
+                }
+            }
+        };
+
+        AsyncExecutor.INSTANCE.execute(task);
+        return task;
+    }
+
+    /** Runs the model on zero valued inputs as many times as the options ask, timing each run */
+
+    private long[] warmup(Options options) {
+        List<TensorSpec> inputSpecs = options.warmupInputs;
+        List<TensorSpec> outputSpecs = options.warmupOutputs;
+
+        if (inputSpecs == null || outputSpecs == null) {
+            Signature signature = signatures.get(options.warmupSignature);
+            if (signature == null) {
+                throw new IllegalArgumentException("SavedModelBundle has no signature " + options.warmupSignature + " to warm up");
+            }
+            inputSpecs = new ArrayList<>(signature.getInputs().values());
+            outputSpecs = new ArrayList<>(signature.getOutputs().values());
+        }
+
+        Tensor[] inputs = new Tensor[inputSpecs.size()];
+        Tensor[] outputs = new Tensor[outputSpecs.size()];
+
+        try {
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = zeros(inputSpecs.get(i), options.warmupBatchSize);
+            }
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = new Tensor(outputSpecs.get(i).getName());
+            }
+
+            long[] timings = new long[options.warmupIterations];
+            for (int i = 0; i < timings.length; i++) {
+                long start = System.nanoTime();
+                run(inputs, outputs);
+                timings[i] = System.nanoTime() - start;
+            }
+            return timings;
+        } finally {
+            closeQuietly(inputs);
+            closeQuietly(outputs);
+        }
+    }
+
+    /** Creates a zero valued tensor for a spec, which may only have an unknown batch dimension */
+
+    private static Tensor zeros(TensorSpec spec, int batchSize) {
+        if (!spec.isRankKnown()) {
+            throw new IllegalArgumentException("Cannot warm up " + spec + ", its rank is not known");
+        }
+
+        int[] shape = spec.getShape(batchSize);
+        for (int dim : shape) {
+            if (dim < 0) {
+                throw new IllegalArgumentException("Cannot warm up " + spec + ", its shape is not fully known");
+            }
+        }
+        if (spec.getDataType() == null) {
+            throw new IllegalArgumentException("Cannot warm up " + spec + ", its type is not supported");
+        }
+
+        Tensor tensor = new Tensor(spec.getDataType(), shape, spec.isScalar(), spec.getName());
+        if (spec.getDataType() == DataType.STRING) {
+            tensor.writeStrings(new byte[(int) tensor.count()][]);
+        } else {
+            byte[] zeros = new byte[(int) tensor.size()];
+            tensor.write(zeros, 0, zeros.length);
+        }
+        return tensor;
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (Exception ignored) {
+            // The model's memory is released even if its session fails to close
+        }
+    }
+
+    private static void closeQuietly(Tensor[] tensors) {
+        for (Tensor tensor : tensors) {
+            if (tensor != null) {
+                try {
+                    tensor.close();
+                } catch (Exception ignored) {
+                    // Tensors free their memory without failing
+                }
+            }
+        }
+    }
+
+    /** Numbers the temporary directories of exports so that concurrent exports never share one */
+
+    private static final AtomicLong exportCount = new AtomicLong();
+
+    /**
+     * Renames a written checkpoint directory to its destination, replacing what was there.
+     * Publishing is serialized because concurrent exports to a destination share its ".old" directory.
+     */
+
+    private static synchronized void publish(File temp, File destination) throws IOException {
+        File old = new File(destination.getPath() + ".old");
+        deleteDirectory(old);
+
+        if (destination.exists() && !destination.renameTo(old)) {
+            throw new IOException("Unable to move " + destination.getPath() + " aside");
+        }
+        if (!temp.renameTo(destination)) {
+            throw new IOException("Unable to move " + temp.getPath() + " to " + destination.getPath());
+        }
+
+        deleteDirectory(old);
+    }
+
+    /** Deletes a checkpoint directory and the files in it */
+
+    private static void deleteDirectory(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (!child.delete()) {
+                    throw new IOException("Unable to delete " + child.getPath());
+                }
+            }
+        }
+        if (dir.exists() && !dir.delete()) {
+            throw new IOException("Unable to delete " + dir.getPath());
+        }
+    }
+
+    /**
+     * Runs the model on a shared background executor, see
+     * {@link #runAsync(Tensor[], Tensor[], Executor)}
+     */
+
+    public Future<Tensor[]> runAsync(Tensor[] inputs, Tensor[] outputs) {
+        return runAsync(inputs, outputs, AsyncExecutor.INSTANCE);
+    }
+
+    /**
+     * Runs the model on an executor and returns immediately, so that the calling thread can
+     * prepare the next inputs while the model runs. The returned future completes with the output
+     * tensors once they have been written, or with the exception the run failed with.
+     *
+     * Do not modify the input tensors or read the output tensors until the future completes.
+     */
+
+    public Future<Tensor[]> runAsync(final Tensor[] inputs, final Tensor[] outputs, Executor executor) {
+        FutureTask<Tensor[]> task = new FutureTask<>(new Callable<Tensor[]>() {
+            @Override
+            public Tensor[] call() {
+                run(inputs, outputs);
+                return outputs;
+            }
+        });
+
+        executor.execute(task);
+        return task;
+    }
+
+    /** The executor asynchronous runs use by default, created the first time it is needed */
+
+    private static class AsyncExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SavedModelBundle.runAsync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Prepares a reusable run of the model with fixed inputs, outputs, and targets. Use a prepared
+     * run in place of {@link #run(Tensor[], Tensor[])} when you run the model repeatedly with the
+     * same tensor names. Targets are ops that are run without fetching their outputs, such as
+     * training ops, and may be null.
+     *
+     * The caller is responsible for closing the prepared run before closing this model.
+     */
+
+    public PreparedRun prepare(String[] inputNames, String[] outputNames, String[] targets) {
+        return new PreparedRun(this, inputNames, outputNames, targets);
     }
 
     // Java Native Interface
@@ -76,24 +636,248 @@ public class SavedModelBundle implements AutoCloseable {
 
     private long handle;
 
+    /** Guards the handle against being freed while it is in use */
+
+    private final HandleLifecycle lifecycle = new HandleLifecycle("SavedModelBundle");
+
+    /** The model's signatures, read once when it is loaded */
+
+    private final Map<String, Signature> signatures;
+
+    /** The duration of each warm-up run in nanoseconds */
+
+    private final long[] warmupTimings;
+
+    /** Unloads the model if it is collected without being closed */
+
+    private NativeCleaner.Cleanup cleanup;
+
+    private static final NativeCleaner.Deleter DELETER = new NativeCleaner.Deleter() {
+        @Override
+        public void delete(long handle) {
+            SavedModelBundle.delete(handle);
+        }
+    };
+
+    /**
+     * Acquires the model and any tensors for the duration of a native call, throwing if any of
+     * them is closed
+     */
+
+    void acquire(Tensor[]... tensors) {
+        lifecycle.acquire();
+        try {
+            Tensor.acquireAll(tensors);
+        } catch (RuntimeException e) {
+            lifecycle.release();
+            throw e;
+        }
+    }
+
+    /** Releases the model and tensors after a call to {@link #acquire(Tensor[][])} */
+
+    void release(Tensor[]... tensors) {
+        Tensor.releaseAll(tensors);
+        lifecycle.release();
+    }
+
     /** Loads a model at a file path and backs this instance with a SavedModelBundle */
 
-    private native void create(String dir, String mode);
+    private native void create(String dir, String mode, int intraOpParallelismThreads, int interOpParallelismThreads,
+                               boolean usePerSessionThreads, int optimizerLevel, boolean constantFolding,
+                               boolean grappler, boolean allowSoftPlacement);
+
+    /** Unloads a model and frees the memory associated with it */
+
+    private static native void delete(long handle);
+
+    /**
+     * Runs the model with input and output tensors. Runs on different threads proceed in
+     * parallel, and the model and tensors are not freed while a run is using them.
+     */
+
+    public void run(Tensor[] inputs, Tensor[] outputs) {
+        acquire(inputs, outputs);
+        try {
+            runTensors(inputs, outputs);
+        } finally {
+            release(inputs, outputs);
+        }
+    }
+
+    /**
+     * Runs the model with the backing tensors of its inputs and the interned names of its inputs
+     * and outputs. This is a faster variant of {@link #run(Tensor[], Tensor[])} for hot paths:
+     * input handles come from {@link Tensor#getNativeHandle()} and names from
+     * {@link #intern(String)}, so nothing needs to be read from the input tensors or converted on
+     * each run. Outputs are written to the output tensors as usual.
+     *
+     * Input handles are used as they are, so the caller must keep the tensors they came from open
+     * until the run returns. Tensors whose handles have been taken are not freed when collected,
+     * so close them when you are done with them.
+     */
+
+    public void run(long[] inputHandles, long[] inputNames, Tensor[] outputs, long[] outputNames) {
+        acquire(outputs);
+        try {
+            runHandles(inputHandles, inputNames, outputs, outputNames);
+        } finally {
+            release(outputs);
+        }
+    }
+
+    /**
+     * Runs one of the model's signatures with tensors keyed by the logical names of the
+     * signature's inputs and outputs rather than by their graph tensor names, which are ignored.
+     * Logical keys are resolved to interned graph names when the model is loaded, so running by
+     * signature converts no names on each run.
+     */
+
+    public void run(String signatureKey, Map<String, Tensor> inputs, Map<String, Tensor> outputs) {
+        Signature signature = signatures.get(signatureKey);
+        if (signature == null) {
+            throw new IllegalArgumentException("SavedModelBundle has no signature " + signatureKey);
+        }
+
+        Tensor[] inputTensors = new Tensor[inputs.size()];
+        long[] inputNames = new long[inputs.size()];
+        int i = 0;
+        for (Map.Entry<String, Tensor> input : inputs.entrySet()) {
+            inputNames[i] = signature.inputName(input.getKey());
+            inputTensors[i++] = input.getValue();
+        }
+
+        Tensor[] outputTensors = new Tensor[outputs.size()];
+        long[] outputNames = new long[outputs.size()];
+        i = 0;
+        for (Map.Entry<String, Tensor> output : outputs.entrySet()) {
+            outputNames[i] = signature.outputName(output.getKey());
+            outputTensors[i++] = output.getValue();
+        }
+
+        acquire(inputTensors, outputTensors);
+        try {
+            long[] inputHandles = new long[inputTensors.length];
+            for (i = 0; i < inputTensors.length; i++) {
+                inputHandles[i] = inputTensors[i].handle();
+            }
+            runHandles(inputHandles, inputNames, outputTensors, outputNames);
+        } finally {
+            release(inputTensors, outputTensors);
+        }
+    }
+
+    /**
+     * Interns a tensor name for use with {@link #run(long[], long[], Tensor[], long[])}. Interned
+     * names are shared by all models and remain valid for the lifetime of the process.
+     */
+
+    public static native long intern(String name);
+
+    /** Reads the model's signatures as strings, see {@link Signature#decode(String[], int[])} */
+
+    private native String[] signatureStrings();
 
-    /** Unloads the model and frees the memory associated with it */
+    /** Reads the model's signatures as ints, see {@link Signature#decode(String[], int[])} */
 
-    private native void delete();
+    private native int[] signatureInts();
 
     /** Runs the model with input and output tensors */
 
-    public native void run(Tensor[] inputs, Tensor[] outputs);
+    private native void runTensors(Tensor[] inputs, Tensor[] outputs);
+
+    /** Runs the model with backing tensor handles and interned names */
+
+    private native void runHandles(long[] inputHandles, long[] inputNames, Tensor[] outputs, long[] outputNames);
+
+    /**
+     * Runs a single epoch of training with the input and output tensors and the names of the
+     * training ops. The outputs, usually the loss, are fetched in the same pass that runs the
+     * training ops and so reflect the variables before this step's update.
+     */
 
-    /** Runs a single epoch of training with the input and output tensors and the names of the training ops */
+    public void train(Tensor[] inputs, Tensor[] outputs, String[] trainingOps) {
+        train(inputs, outputs, trainingOps, false);
+    }
+
+    /**
+     * Runs a single epoch of training. When fetchAfterUpdate is true the outputs are fetched in a
+     * second pass after the training ops have run, so they reflect the updated variables at the
+     * cost of repeating the forward pass. When false this is the same as
+     * {@link #train(Tensor[], Tensor[], String[])}.
+     */
+
+    public void train(Tensor[] inputs, Tensor[] outputs, String[] trainingOps, boolean fetchAfterUpdate) {
+        acquire(inputs, outputs);
+        try {
+            trainStep(inputs, outputs, trainingOps, fetchAfterUpdate);
+        } finally {
+            release(inputs, outputs);
+        }
+    }
+
+    /**
+     * Runs up to steps training steps back to back in native code, pulling each minibatch from
+     * the source into its reusable input tensors and fetching the loss after every step. Training
+     * ends early when the source runs out of batches or {@link #cancelTraining()} is called,
+     * including a cancellation issued before the loop starts.
+     *
+     * @return The loss at each step that was run
+     * @throws IllegalArgumentException if steps is negative
+     */
+
+    public float[] trainSteps(BatchSource source, int steps, String[] trainingOps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("steps must not be negative, was " + steps);
+        }
+
+        Tensor[] inputs = source.getInputs();
+
+        acquire(inputs);
+        try {
+            return trainLoop(source, steps, trainingOps);
+        } finally {
+            trainingCancelled = false;
+            release(inputs);
+        }
+    }
+
+    /** Stops a {@link #trainSteps(BatchSource, int, String[])} loop after its current step */
+
+    public void cancelTraining() {
+        trainingCancelled = true;
+    }
+
+    /** Set to stop a training loop, read by native code between steps */
+
+    private volatile boolean trainingCancelled = false;
+
+    /** Runs a single epoch of training in one or two passes */
 
-    public native void train(Tensor[] inputs, Tensor[] outputs, String[] trainingOps);
+    private native void trainStep(Tensor[] inputs, Tensor[] outputs, String[] trainingOps, boolean fetchAfterUpdate);
+
+    /** Runs training steps with batches from the source and returns the loss history */
+
+    private native float[] trainLoop(BatchSource source, int steps, String[] trainingOps);
 
     /** Exports the model checkpoints to the file path */
 
     private native void export(String path);
 
+    /** Restores the model checkpoints from the file path */
+
+    private native void restore(String path);
+
+    /** Copies the variables the saver writes and returns a pointer to the copy */
+
+    private native long snapshot();
+
+    /** Writes a snapshot as a checkpoint to the file path */
+
+    private static native void writeSnapshot(long snapshot, String path);
+
+    /** Frees a snapshot */
+
+    private static native void deleteSnapshot(long snapshot);
+
 }
@@ -0,0 +1,171 @@
+/*
+ * ServingHandle.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A ServingHandle owns the model currently being served and lets it be replaced while requests
+ * are still running on it. Requests acquire a {@link Lease} on the current model, or call
+ * {@link #run(Tensor[], Tensor[])} which does so for them. {@link #swap(SavedModelBundle)} points
+ * new requests at a replacement model at once, and the old model is closed only when the last
+ * lease on it is released.
+ *
+ * Acquiring and releasing a lease never blocks. Each model is reference counted, with one
+ * reference held by the handle for as long as the model is current, so the model is closed by
+ * whichever thread releases the last reference, either a request or the swap itself.
+ */
+
+public class ServingHandle implements AutoCloseable {
+
+    /** A request's hold on the model it runs on. Close the lease to release it. */
+
+    public static class Lease implements AutoCloseable {
+        private final Generation generation;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(Generation generation) {
+            this.generation = generation;
+        }
+
+        /** Returns the model. Do not close it yourself. */
+
+        public SavedModelBundle getBundle() {
+            return generation.bundle;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                generation.release();
+            }
+        }
+    }
+
+    /** Creates a handle serving a model, which the handle now owns */
+
+    public ServingHandle(SavedModelBundle bundle) {
+        current.set(new Generation(bundle));
+    }
+
+    /** Acquires a lease on the current model */
+
+    public Lease acquire() {
+        while (true) {
+            Generation generation = current.get();
+
+            if (generation == null) {
+                throw new IllegalStateException("ServingHandle is closed");
+            }
+
+            // A model that was swapped out and has drained can no longer be retained, in which
+            // case the replacement is already current
+
+            if (generation.retain()) {
+                return new Lease(generation);
+            }
+        }
+    }
+
+    /** Runs the current model, holding a lease on it for the duration of the run */
+
+    public void run(Tensor[] inputs, Tensor[] outputs) {
+        try (Lease lease = acquire()) {
+            lease.getBundle().run(inputs, outputs);
+        }
+    }
+
+    /**
+     * Replaces the current model. Requests that acquire a lease after this call run on the
+     * replacement, while those that already hold one finish on the previous model, which is
+     * closed when they have all released it. The handle now owns the replacement.
+     */
+
+    public void swap(SavedModelBundle replacement) {
+        Generation next = new Generation(replacement);
+        Generation previous;
+
+        do {
+            previous = current.get();
+
+            if (previous == null) {
+                next.release();
+                throw new IllegalStateException("ServingHandle is closed");
+            }
+        } while (!current.compareAndSet(previous, next));
+
+        previous.release();
+    }
+
+    /** Stops serving. The current model is closed when its last lease is released. */
+
+    @Override
+    public void close() {
+        Generation previous = current.getAndSet(null);
+
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    // Private
+
+    /** A model and the number of references to it, which is closed when they reach zero */
+
+    private static class Generation {
+        final SavedModelBundle bundle;
+        final AtomicInteger refCount = new AtomicInteger(1);
+
+        Generation(SavedModelBundle bundle) {
+            this.bundle = bundle;
+        }
+
+        /** Takes a reference unless the model has already been released for good */
+
+        boolean retain() {
+            while (true) {
+                int count = refCount.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() == 0) {
+                try {
+                    bundle.close();
+                } catch (Exception ignored) {
+                    // The model's memory is released even if its session fails to close
+                }
+            }
+        }
+    }
+
+    /** The model new requests run on, or null once the handle is closed */
+
+    private final AtomicReference<Generation> current = new AtomicReference<>();
+}
@@ -0,0 +1,202 @@
+/*
+ * Signature.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package ai.doc.tensorflow;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One of a model's signatures, read from the SavedModel's SignatureDefs when the model is loaded.
+ * A signature maps the logical keys of its inputs and outputs, such as "image" or "loss", to
+ * {@link TensorSpec}s whose names are the tensors in the graph, so a model can be run without
+ * knowing its graph's tensor names, see
+ * {@link SavedModelBundle#run(String, Map, Map)}. Specs may be used to create tensors for the
+ * signature in advance.
+ *
+ * A spec's data type is null if Java does not support the tensor's type. Unknown dimensions are
+ * -1, and the shape of a tensor whose rank is unknown is null, see {@link TensorSpec#isRankKnown()}.
+ */
+
+public final class Signature {
+
+    /** Returns the key the signature is stored under, for example "serving_default" */
+
+    public String getKey() {
+        return key;
+    }
+
+    /** Returns the signature's method name, for example "tensorflow/serving/predict" */
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /** Returns the signature's inputs by logical key */
+
+    public Map<String, TensorSpec> getInputs() {
+        return inputs;
+    }
+
+    /** Returns the signature's outputs by logical key */
+
+    public Map<String, TensorSpec> getOutputs() {
+        return outputs;
+    }
+
+    /** Returns the spec of the input with a logical key, or null if there is none */
+
+    public TensorSpec getInput(String key) {
+        return inputs.get(key);
+    }
+
+    /** Returns the spec of the output with a logical key, or null if there is none */
+
+    public TensorSpec getOutput(String key) {
+        return outputs.get(key);
+    }
+
+    @Override
+    public String toString() {
+        return "Signature{" + key + ", " + methodName + ", inputs=" + inputs.values() + ", outputs=" + outputs.values() + "}";
+    }
+
+    // Package Methods
+
+    /** Returns the interned tensor name of the input with a logical key */
+
+    long inputName(String key) {
+        return resolve(inputNames, key, "input");
+    }
+
+    /** Returns the interned tensor name of the output with a logical key */
+
+    long outputName(String key) {
+        return resolve(outputNames, key, "output");
+    }
+
+    /**
+     * Decodes signatures from the strings and ints written by native code, see
+     * saved_model_bundle_jni.cpp, interning each tensor name once
+     */
+
+    static Map<String, Signature> decode(String[] strings, int[] ints) {
+        Map<String, Signature> signatures = new LinkedHashMap<>();
+        Cursor cursor = new Cursor(strings, ints);
+
+        while (cursor.s < strings.length) {
+            String key = strings[cursor.s++];
+            String methodName = strings[cursor.s++];
+            int inputCount = ints[cursor.i++];
+            int outputCount = ints[cursor.i++];
+
+            Map<String, TensorSpec> inputs = new LinkedHashMap<>();
+            Map<String, TensorSpec> outputs = new LinkedHashMap<>();
+            Map<String, Long> inputNames = new HashMap<>();
+            Map<String, Long> outputNames = new HashMap<>();
+
+            cursor.readTensors(inputCount, inputs, inputNames);
+            cursor.readTensors(outputCount, outputs, outputNames);
+
+            signatures.put(key, new Signature(key, methodName, inputs, outputs, inputNames, outputNames));
+        }
+
+        return Collections.unmodifiableMap(signatures);
+    }
+
+    // Private
+
+    private Signature(String key, String methodName, Map<String, TensorSpec> inputs, Map<String, TensorSpec> outputs,
+                      Map<String, Long> inputNames, Map<String, Long> outputNames) {
+        this.key = key;
+        this.methodName = methodName;
+        this.inputs = Collections.unmodifiableMap(inputs);
+        this.outputs = Collections.unmodifiableMap(outputs);
+        this.inputNames = inputNames;
+        this.outputNames = outputNames;
+    }
+
+    private long resolve(Map<String, Long> names, String key, String kind) {
+        Long name = names.get(key);
+        if (name == null) {
+            throw new IllegalArgumentException("Signature " + this.key + " has no " + kind + " " + key);
+        }
+        return name;
+    }
+
+    /** Reads through the encoded strings and ints */
+
+    private static class Cursor {
+        final String[] strings;
+        final int[] ints;
+        int s = 0;
+        int i = 0;
+
+        Cursor(String[] strings, int[] ints) {
+            this.strings = strings;
+            this.ints = ints;
+        }
+
+        void readTensors(int count, Map<String, TensorSpec> specs, Map<String, Long> names) {
+            for (int n = 0; n < count; n++) {
+                String key = strings[s++];
+                String name = strings[s++];
+
+                DataType dtype = dataType(ints[i++]);
+                int rank = ints[i++];
+                int[] shape = rank < 0 ? null : new int[rank];
+                for (int d = 0; d < rank; d++) {
+                    shape[d] = ints[i++];
+                }
+
+                // A rank 0 tensor is not scalar in this library's sense, a batch of scalars
+                // along one dimension, and its empty shape creates a true rank 0 tensor
+
+                specs.put(key, new TensorSpec(name, dtype, shape, false));
+                names.put(key, SavedModelBundle.intern(name));
+            }
+        }
+
+        static DataType dataType(int c) {
+            try {
+                return DataType.fromC(c);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private final String key;
+
+    private final String methodName;
+
+    private final Map<String, TensorSpec> inputs;
+
+    private final Map<String, TensorSpec> outputs;
+
+    /** Interned tensor names by logical key, resolved when the model is loaded */
+
+    private final Map<String, Long> inputNames;
+
+    private final Map<String, Long> outputNames;
+}
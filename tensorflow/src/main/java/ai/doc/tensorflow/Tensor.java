@@ -25,6 +25,10 @@ package ai.doc.tensorflow;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A Tensor is backed by an underlying TensorFlow Tensor that is either prepared in advance of
@@ -39,9 +43,22 @@ public class Tensor implements AutoCloseable {
         NativeLibrary.init();
     }
 
+    /**
+     * Frees the underlying tensor. Waits for calls using the tensor on other threads to finish
+     * first, and does nothing if the tensor is already closed. A tensor that is never closed is
+     * freed after it is garbage collected, but close tensors when you are done with them so that
+     * their memory is released promptly.
+     */
+
     @Override
     public void close() throws Exception {
-        delete();
+        if (lifecycle.close()) {
+            if (cleanup != null) {
+                cleanup.cancel();
+            }
+            delete(handle);
+            handle = 0;
+        }
     }
 
     // Public Constructors
@@ -58,13 +75,29 @@ public class Tensor implements AutoCloseable {
         setBytes(bytes);
     }
 
-    /** Returns the {@link DataType} of elements stored in the Tensor */
+    /**
+     * Creates an output tensor whose type and shape are not known in advance. Both are set from
+     * the model's output when the tensor is run, and are null until then.
+     */
+
+    public Tensor(String name) {
+        this(null, null, false, name);
+    }
+
+    /**
+     * Returns the {@link DataType} of elements stored in the Tensor. After a run an output tensor
+     * has the type of the model's output, which may be null before the first run.
+     */
 
     public DataType getDataType() {
         return dtype;
     }
 
-    /** Returns the shape of the Tensor */
+    /**
+     * Returns the shape of the Tensor. After a run an output tensor has the shape of the model's
+     * output, which may differ from the shape it was declared with, for example in its batch size,
+     * and may be null before the first run.
+     */
 
     public int[] getShape() {
         return shape;
@@ -73,6 +106,7 @@ public class Tensor implements AutoCloseable {
     /** Returns the total number of elements in the tensor according to dims */
 
     public long count() {
+        checkShape();
         int count = 1;
         for(int v : getShape()) {
             count *= v;
@@ -92,6 +126,28 @@ public class Tensor implements AutoCloseable {
         return name;
     }
 
+    /**
+     * Returns the pointer to the backing TensorFlow tensor for use with
+     * {@link SavedModelBundle#run(long[], long[], Tensor[], long[])}, or 0 if the tensor is not yet
+     * backed. Once a tensor is backed its handle does not change until the tensor is closed.
+     *
+     * The garbage collector cannot see a raw handle in use, so a tensor whose handle has been
+     * returned is no longer freed automatically when it is collected. You must close it.
+     */
+
+    public long getNativeHandle() {
+        if (handle != 0) {
+            synchronized (this) {
+                exposed = true;
+                if (cleanup != null) {
+                    cleanup.cancel();
+                    cleanup = null;
+                }
+            }
+        }
+        return handle;
+    }
+
     /** Returns true if this Tensor holds a scalar value, false otherwise */
 
     public boolean isScalar() {
@@ -110,29 +166,399 @@ public class Tensor implements AutoCloseable {
             throw new AssertionError("Assertion failed");
         }
 
-        createBackingTensor();
-        writeBytes(buffer, size(), dtype.c());
+        lifecycle.acquire();
+        try {
+            createBackingTensor();
+            writeBytes(buffer, size(), dtype.c());
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Allocate this tensor's backing memory in advance. Use this with output tensors you reuse
+     * across runs: a model writes its outputs directly into a preallocated tensor rather than
+     * allocating a new one each time. Outputs may also be written into a buffer of your own by
+     * calling {@link #wrapBytes(ByteBuffer)} on the output tensor.
+     *
+     * A preallocated output must have the same type and byte size as the model's output, or the
+     * run fails with an exception.
+     */
+
+    public void preallocate() {
+        lifecycle.acquire();
+        try {
+            createBackingTensor();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Back this tensor with the memory of a buffer without copying it. The same requirements apply
+     * as for {@link #setBytes(ByteBuffer)}: the buffer must be direct and use native ordering.
+     *
+     * The tensor reads directly from the buffer, so changes you make to the buffer are seen by the
+     * model the next time it runs, and the buffer is kept alive for as long as the tensor needs it.
+     * Do not modify the buffer while a model that uses this tensor is running.
+     *
+     * TensorFlow requires tensor memory to be aligned. If the buffer's address is not suitably
+     * aligned its contents are copied instead, exactly as with {@link #setBytes(ByteBuffer)}.
+     *
+     * @return true if the tensor wraps the buffer, false if the buffer's contents were copied
+     */
+
+    public boolean wrapBytes(ByteBuffer buffer) {
+        if (BuildConfig.DEBUG && !(buffer.isDirect() && buffer.order() == ByteOrder.nativeOrder())) {
+            throw new AssertionError("Assertion failed");
+        }
+
+        lifecycle.acquire();
+        try {
+            boolean wrapped = wrap(buffer, size(), dtype.c(), scalar, shape);
+            isBacked = true;
+            bytes = null;
+
+            return wrapped;
+        } finally {
+            release();
+        }
     }
 
     /**
      * Get this tensor's bytes. If you set the tensor's bytes yourself it will return those values,
      * otherwise it returns the bytes read from a model's outputs in the tensor with the name you
      * have specified.
+     *
+     * A tensor whose memory you have set, wrapped, or preallocated returns the same buffer each
+     * time, rewound to the start, so repeatedly reading outputs does not allocate.
+     *
+     * The buffer views the tensor's native memory and keeps that memory alive for as long as the
+     * buffer or a view of it is reachable, even if the tensor is closed. A model output that is
+     * not preallocated gets new memory on each run, so its buffer keeps the values of the run it
+     * was read after.
      */
 
     public ByteBuffer getBytes() {
-        return readBytes(size(), dtype.c()).order(ByteOrder.nativeOrder());
+        lifecycle.acquire();
+        try {
+            if (!isBacked) {
+                return pinnedBytes();
+            }
+
+            if (bytes == null) {
+                bytes = pinnedBytes();
+            }
+
+            bytes.rewind();
+            return bytes;
+        } finally {
+            release();
+        }
+    }
+
+    // Bulk Array Access
+    // Arrays are copied straight to and from the backing tensor in a single native call, without
+    // an intermediate buffer. Elements are written and read starting with the tensor's first
+    // element, and offset and length refer to the array.
+
+    /**
+     * Writes length floats from src starting at offset into this FLOAT32 tensor. Floats are
+     * converted natively when written to a FLOAT16, BFLOAT16, or FLOAT64 tensor.
+     */
+
+    public void write(float[] src, int offset, int length) {
+        if (isConvertedFromFloat()) {
+            checkArray(dtype, src.length, offset, length);
+            lifecycle.acquire();
+            try {
+                createBackingTensor();
+                convertFromFloats(src, offset, length);
+            } finally {
+                release();
+            }
+            return;
+        }
+
+        checkArray(DataType.FLOAT32, src.length, offset, length);
+        writeArray(src, offset, length, 4);
+    }
+
+    /** Writes length doubles from src starting at offset into this FLOAT64 tensor */
+
+    public void write(double[] src, int offset, int length) {
+        checkArray(DataType.FLOAT64, src.length, offset, length);
+        writeArray(src, offset, length, 8);
+    }
+
+    /** Writes length shorts from src starting at offset into this INT16 tensor */
+
+    public void write(short[] src, int offset, int length) {
+        checkArray(DataType.INT16, src.length, offset, length);
+        writeArray(src, offset, length, 2);
+    }
+
+    /** Writes length booleans from src starting at offset into this BOOL tensor */
+
+    public void write(boolean[] src, int offset, int length) {
+        checkArray(DataType.BOOL, src.length, offset, length);
+        writeArray(src, offset, length, 1);
+    }
+
+    /** Writes length ints from src starting at offset into this INT32 tensor */
+
+    public void write(int[] src, int offset, int length) {
+        checkArray(DataType.INT32, src.length, offset, length);
+        writeArray(src, offset, length, 4);
+    }
+
+    /** Writes length longs from src starting at offset into this INT64 tensor */
+
+    public void write(long[] src, int offset, int length) {
+        checkArray(DataType.INT64, src.length, offset, length);
+        writeArray(src, offset, length, 8);
+    }
+
+    /**
+     * Writes length bytes from src starting at offset into this tensor. Bytes are copied as they
+     * are into a tensor of any numeric type and must use native ordering.
+     */
+
+    public void write(byte[] src, int offset, int length) {
+        checkArray(null, src.length, offset, length);
+        writeArray(src, offset, length, 1);
+    }
+
+    /**
+     * Reads length floats from this FLOAT32 tensor into dst starting at offset. Values are
+     * converted natively when read from a FLOAT16, BFLOAT16, or FLOAT64 tensor.
+     */
+
+    public void read(float[] dst, int offset, int length) {
+        if (isConvertedFromFloat()) {
+            checkArray(dtype, dst.length, offset, length);
+            lifecycle.acquire();
+            try {
+                if (handle == 0) {
+                    throw new IllegalStateException("Tensor " + name + " has no values to read");
+                }
+                convertToFloats(dst, offset, length);
+            } finally {
+                release();
+            }
+            return;
+        }
+
+        checkArray(DataType.FLOAT32, dst.length, offset, length);
+        readArray(dst, offset, length, 4);
+    }
+
+    /** Reads length doubles from this FLOAT64 tensor into dst starting at offset */
+
+    public void read(double[] dst, int offset, int length) {
+        checkArray(DataType.FLOAT64, dst.length, offset, length);
+        readArray(dst, offset, length, 8);
+    }
+
+    /** Reads length shorts from this INT16 tensor into dst starting at offset */
+
+    public void read(short[] dst, int offset, int length) {
+        checkArray(DataType.INT16, dst.length, offset, length);
+        readArray(dst, offset, length, 2);
+    }
+
+    /** Reads length booleans from this BOOL tensor into dst starting at offset */
+
+    public void read(boolean[] dst, int offset, int length) {
+        checkArray(DataType.BOOL, dst.length, offset, length);
+        readArray(dst, offset, length, 1);
+    }
+
+    /** Reads length ints from this INT32 tensor into dst starting at offset */
+
+    public void read(int[] dst, int offset, int length) {
+        checkArray(DataType.INT32, dst.length, offset, length);
+        readArray(dst, offset, length, 4);
+    }
+
+    /** Reads length longs from this INT64 tensor into dst starting at offset */
+
+    public void read(long[] dst, int offset, int length) {
+        checkArray(DataType.INT64, dst.length, offset, length);
+        readArray(dst, offset, length, 8);
+    }
+
+    /** Reads length bytes from this tensor of any numeric type into dst starting at offset */
+
+    public void read(byte[] dst, int offset, int length) {
+        checkArray(null, dst.length, offset, length);
+        readArray(dst, offset, length, 1);
+    }
+
+    // String Tensors
+    // All of a STRING tensor's elements are written or read in a single native call, in row
+    // major order. Strings are encoded as UTF-8.
+
+    /** Writes one string per element into this STRING tensor */
+
+    public void writeStrings(String[] src) {
+        byte[][] bytes = new byte[src.length][];
+        for (int i = 0; i < src.length; i++) {
+            bytes[i] = src[i] == null ? null : src[i].getBytes(StandardCharsets.UTF_8);
+        }
+        writeStrings(bytes);
+    }
+
+    /** Writes one byte string per element into this STRING tensor, a null element is empty */
+
+    public void writeStrings(byte[][] src) {
+        checkType(DataType.STRING);
+        if (src.length != count()) {
+            throw new IllegalArgumentException("Tensor " + name + " holds " + count() + " strings, not " + src.length);
+        }
+
+        lifecycle.acquire();
+        try {
+            createBackingTensor();
+            copyFromStrings(src);
+        } finally {
+            release();
+        }
+    }
+
+    /** Reads every element of this STRING tensor as a UTF-8 string */
+
+    public String[] readStrings() {
+        byte[][] bytes = readStringBytes();
+        String[] strings = new String[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            strings[i] = new String(bytes[i], StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /** Reads every element of this STRING tensor as bytes */
+
+    public byte[][] readStringBytes() {
+        checkType(DataType.STRING);
+
+        lifecycle.acquire();
+        try {
+            if (handle == 0) {
+                throw new IllegalStateException("Tensor " + name + " has no values to read");
+            }
+            return copyToStrings();
+        } finally {
+            release();
+        }
+    }
+
+    // Typed Views
+    // Views share the tensor's native memory, see getBytes. Writing to the view of a tensor you
+    // have set or preallocated changes its values without a copy. The view of a model output that
+    // is not preallocated holds the values of the run it was read after.
+
+    /** Returns a view of this FLOAT32 tensor's values */
+
+    public FloatBuffer asFloatBuffer() {
+        checkType(DataType.FLOAT32);
+        return getBytes().asFloatBuffer();
+    }
+
+    /** Returns a view of this INT32 tensor's values */
+
+    public IntBuffer asIntBuffer() {
+        checkType(DataType.INT32);
+        return getBytes().asIntBuffer();
+    }
+
+    /** Returns a view of this INT64 tensor's values */
+
+    public LongBuffer asLongBuffer() {
+        checkType(DataType.INT64);
+        return getBytes().asLongBuffer();
+    }
+
+    // Package Methods
+
+    /** Returns the handle for internal calls that hold the tensor, without exposing it */
+
+    long handle() {
+        return handle;
+    }
+
+    /**
+     * Acquires every tensor in the arrays for the duration of a native call that uses them, so
+     * that none is freed meanwhile. Throws if any tensor is closed, in which case none are held.
+     */
+
+    static void acquireAll(Tensor[]... arrays) {
+        int acquired = 0;
+        try {
+            for (Tensor[] tensors : arrays) {
+                for (Tensor tensor : tensors) {
+                    tensor.lifecycle.acquire();
+                    acquired++;
+                }
+            }
+        } catch (RuntimeException e) {
+            releaseAll(acquired, arrays);
+            throw e;
+        }
+    }
+
+    /** Releases every tensor in the arrays after a call to {@link #acquireAll(Tensor[][])} */
+
+    static void releaseAll(Tensor[]... arrays) {
+        releaseAll(Integer.MAX_VALUE, arrays);
+    }
+
+    private static void releaseAll(int count, Tensor[]... arrays) {
+        for (Tensor[] tensors : arrays) {
+            for (Tensor tensor : tensors) {
+                if (count-- == 0) {
+                    return;
+                }
+                tensor.release();
+            }
+        }
+    }
+
+    /**
+     * Writes an image's pixels into the image at batchIndex in this tensor, see
+     * {@link ImagePreprocessor}
+     */
+
+    void writePixels(Object pixels, boolean direct, int width, int height, int batchIndex, ImagePreprocessor preprocessor) {
+        if (dtype != DataType.FLOAT32 && dtype != DataType.UINT8) {
+            throw new IllegalArgumentException("Tensor " + name + " has type " + dtype + ", not FLOAT32 or UINT8");
+        }
+        if (shape.length != 4 || shape[3] != 3) {
+            throw new IllegalArgumentException("Tensor " + name + " does not have shape [batch, height, width, 3]");
+        }
+        if (batchIndex < 0 || batchIndex >= shape[0]) {
+            throw new IndexOutOfBoundsException("batch index " + batchIndex + " out of range for batch of size " + shape[0]);
+        }
+
+        lifecycle.acquire();
+        try {
+            createBackingTensor();
+            copyFromPixels(pixels, direct, width, height, batchIndex, preprocessor.scale(), preprocessor.bias(),
+                    preprocessor.getChannelOrder() == ImagePreprocessor.ChannelOrder.BGR, preprocessor.getCenterCrop());
+        } finally {
+            release();
+        }
     }
 
     // Private Variables
 
-    /** The type of the underlying tensor */
+    /** The type of the underlying tensor, updated from native code when an output is captured */
 
-    private final DataType dtype;
+    private DataType dtype;
 
-    /** The shape of the underlying tensor */
+    /** The shape of the underlying tensor, updated from native code when an output is captured */
 
-    private final int[] shape;
+    private int[] shape;
 
     /** The name of the underlying tensor */
 
@@ -140,14 +566,109 @@ public class Tensor implements AutoCloseable {
 
     /** Whether the Tensor holds a scalar value or one with dimension */
 
-    private final boolean scalar;
+    private boolean scalar;
 
     // Private Methods
 
+    /** True when this tensor owns its memory, false when it holds a model's output */
+
     private boolean isBacked = false;
 
+    /** A buffer over the memory this tensor owns, reused by getBytes */
+
+    private ByteBuffer bytes;
+
+    /**
+     * Ends a call that may have backed this tensor, registering the new handle to be freed if the
+     * tensor is collected without being closed
+     */
+
+    private void release() {
+        if (cleanup == null && handle != 0 && !exposed) {
+            synchronized (this) {
+                if (cleanup == null && !exposed) {
+                    cleanup = NativeCleaner.register(this, handle, DELETER);
+                }
+            }
+        }
+        lifecycle.release();
+    }
+
+    /** Float arrays are converted to and from these types rather than copied */
+
+    private boolean isConvertedFromFloat() {
+        return dtype == DataType.FLOAT16 || dtype == DataType.BFLOAT16 || dtype == DataType.FLOAT64;
+    }
+
+    private void checkShape() {
+        if (dtype == null || shape == null) {
+            throw new IllegalStateException("Tensor " + name + " has no type or shape until a model outputs it");
+        }
+    }
+
+    private void checkType(DataType type) {
+        if (dtype != type) {
+            throw new IllegalArgumentException("Tensor " + name + " has type " + dtype + ", not " + type);
+        }
+    }
+
+    /** Checks an array range against the tensor's type and size. Byte arrays have no type. */
+
+    private void checkArray(DataType type, int arrayLength, int offset, int length) {
+        checkShape();
+        if (type != null) {
+            checkType(type);
+        } else if (dtype.byteSize() < 0) {
+            throw new IllegalArgumentException("Tensor " + name + " has variable sized elements");
+        }
+        if (offset < 0 || length < 0 || offset > arrayLength - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + " and length " + length + " out of range for array of length " + arrayLength);
+        }
+        if (length > (type == null ? size() : count())) {
+            throw new IllegalArgumentException("Tensor " + name + " is smaller than the " + length + " values given");
+        }
+    }
+
+    private void writeArray(Object src, int offset, int length, int elementSize) {
+        lifecycle.acquire();
+        try {
+            createBackingTensor();
+            copyFromArray(src, offset, length, elementSize);
+        } finally {
+            release();
+        }
+    }
+
+    private void readArray(Object dst, int offset, int length, int elementSize) {
+        lifecycle.acquire();
+        try {
+            if (handle == 0) {
+                throw new IllegalStateException("Tensor " + name + " has no values to read");
+            }
+            copyToArray(dst, offset, length, elementSize);
+        } finally {
+            release();
+        }
+    }
+
+    /** Returns a buffer over a pin of this tensor's memory, unpinned when the buffer is collected */
+
+    private ByteBuffer pinnedBytes() {
+        long pin = pin();
+        ByteBuffer buffer;
+        try {
+            buffer = readBytes(pin, size(), dtype.c());
+        } catch (RuntimeException e) {
+            unpin(pin);
+            throw e;
+        }
+        NativeCleaner.register(buffer, pin, UNPIN);
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
     private void createBackingTensor() {
         if (!isBacked) {
+            checkShape();
             create(dtype.c(), scalar, shape);
             isBacked = true;
         }
@@ -159,19 +680,89 @@ public class Tensor implements AutoCloseable {
 
     private long handle = 0;
 
+    /** Guards the handle against being freed while it is in use */
+
+    private final HandleLifecycle lifecycle = new HandleLifecycle("Tensor");
+
+    /** Frees the handle if this tensor is collected without being closed */
+
+    private volatile NativeCleaner.Cleanup cleanup;
+
+    private static final NativeCleaner.Deleter DELETER = new NativeCleaner.Deleter() {
+        @Override
+        public void delete(long handle) {
+            Tensor.delete(handle);
+        }
+    };
+
+    private static final NativeCleaner.Deleter UNPIN = new NativeCleaner.Deleter() {
+        @Override
+        public void delete(long pin) {
+            Tensor.unpin(pin);
+        }
+    };
+
+    /** True once the handle has been returned by getNativeHandle, after which it is never cleaned */
+
+    private boolean exposed = false;
+
+    /** The pointer to this tensor's interned name, set the first time the tensor is used */
+
+    private long nameHandle = 0;
+
     /** Allocates a tensorflow Tensor and backs this instance with it */
 
     private native void create(int dtype, boolean scalar, int[] shape);
 
-    /** Frees the memory associated with the underlying tensorflow Tensor */
+    /** Frees the memory associated with an underlying tensorflow Tensor */
+
+    private static native void delete(long handle);
 
-    private native void delete();
+    /** Backs this instance with a tensorflow Tensor that shares the memory of a direct buffer */
+
+    private native boolean wrap(ByteBuffer buffer, long size, int dtype, boolean scalar, int[] shape);
 
     /** Writes bytes to the backing tensor */
 
     private native void writeBytes(ByteBuffer buffer, long size, int dtype);
 
-    /** Reads bytes from the backing tensor */
+    /** Copies a range of a primitive array to the start of the backing tensor */
+
+    private native void copyFromArray(Object src, int offset, int length, int elementSize);
+
+    /** Copies the start of the backing tensor to a range of a primitive array */
+
+    private native void copyToArray(Object dst, int offset, int length, int elementSize);
+
+    /** Converts a range of floats to the backing tensor's type and writes them to its start */
+
+    private native void convertFromFloats(float[] src, int offset, int length);
+
+    /** Converts the start of the backing tensor to floats in a range of an array */
+
+    private native void convertToFloats(float[] dst, int offset, int length);
+
+    /** Writes byte strings to the elements of the backing STRING tensor */
+
+    private native void copyFromStrings(byte[][] src);
+
+    /** Reads the elements of the backing STRING tensor as byte strings */
+
+    private native byte[][] copyToStrings();
+
+    /** Creates a buffer over the memory of a pin */
+
+    private static native ByteBuffer readBytes(long pin, long size, int dtype);
+
+    /** Creates a second reference to the backing tensor's memory */
+
+    private native long pin();
+
+    /** Releases a reference created by pin */
+
+    private static native void unpin(long pin);
+
+    /** Normalizes and resizes pixels into one image of this tensor */
 
-    private native ByteBuffer readBytes(long size, int dtype);
+    private native void copyFromPixels(Object pixels, boolean direct, int width, int height, int batchIndex, float[] scale, float[] bias, boolean bgr, boolean centerCrop);
 }
@@ -0,0 +1,73 @@
+/*
+ * TensorPool.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+/**
+ * Controls the pool that recycles the native memory of tensors. Tensors you create, preallocate,
+ * or fill with {@link Tensor#setBytes(java.nio.ByteBuffer)}, and the batches a
+ * {@link BatchingRunner} assembles, take their memory from the pool. When a tensor is closed,
+ * collected, or given new memory, the old memory goes back to the pool for the next tensor with
+ * the same data type and shape. Steady state inference with the same shapes then reuses a fixed
+ * working set instead of allocating on every run.
+ *
+ * Free memory is kept first in a small cache on the thread that released it and then in a global
+ * free list. All of it, in every thread's cache and the global list, is bounded by
+ * {@link #setMaxBytes(long)}, and memory that does not fit is freed. Each thread's cache is also
+ * limited to a few blocks per shape and a few megabytes.
+ * Model outputs are allocated by TensorFlow and shared with output tensors without a copy, so
+ * they do not come from the pool.
+ */
+
+public final class TensorPool {
+
+    static {
+        NativeLibrary.init();
+    }
+
+    private TensorPool() {}
+
+    /**
+     * Sets the most bytes of free memory the pool holds, 64MB by default. Setting it to 0 disables
+     * pooling, and lowering it below what the pool holds empties the pool.
+     */
+
+    public static native void setMaxBytes(long bytes);
+
+    /** Returns the most bytes of free memory the pool holds */
+
+    public static native long getMaxBytes();
+
+    /** Returns the bytes of free memory currently held by the pool */
+
+    public static native long getPooledBytes();
+
+    /** Returns the number of allocations that reused pooled memory */
+
+    public static native long getHitCount();
+
+    /** Returns the number of allocations that had to allocate new memory */
+
+    public static native long getMissCount();
+
+    /** Frees all free memory held by the pool, in the global list and every thread's cache */
+
+    public static native void clear();
+}
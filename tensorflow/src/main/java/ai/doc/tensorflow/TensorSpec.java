@@ -0,0 +1,153 @@
+/*
+ * TensorSpec.java
+ * TensorIO TensorFlow
+ *
+ * Created by Philip Dow
+ * Copyright (c) 2020 - Present doc.ai (http://doc.ai)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.doc.tensorflow;
+
+import java.util.Arrays;
+
+/**
+ * An immutable description of one of a model's inputs or outputs: its name, data type, and shape.
+ * A shape may have a -1 batch dimension whose size is chosen when a tensor is created from the
+ * spec, and is null when even the tensor's rank is unknown. Specs are usually read from a bundle's
+ * model.json by {@link BundleDescriptor}.
+ */
+
+public final class TensorSpec {
+
+    /**
+     * Creates a spec. A scalar spec is a batch of scalar values sized by its first dimension, so
+     * it needs at least one dimension, while a rank 0 tensor has an empty shape and is not scalar.
+     *
+     * @throws IllegalArgumentException if scalar is set with an empty shape
+     */
+
+    public TensorSpec(String name, DataType dtype, int[] shape, boolean scalar) {
+        if (scalar && shape != null && shape.length == 0) {
+            throw new IllegalArgumentException("TensorSpec " + name + " is scalar but has no dimensions");
+        }
+        this.name = name;
+        this.dtype = dtype;
+        this.shape = shape == null ? null : shape.clone();
+        this.scalar = scalar && shape != null;
+    }
+
+    /** Returns the name of the tensor in the graph */
+
+    public String getName() {
+        return name;
+    }
+
+    /** Returns the {@link DataType} of the tensor */
+
+    public DataType getDataType() {
+        return dtype;
+    }
+
+    /** Returns the shape of the tensor, which may have a -1 batch dimension, or null if its rank is unknown */
+
+    public int[] getShape() {
+        return shape == null ? null : shape.clone();
+    }
+
+    /** Returns true if the number of dimensions is known, which a tensor created from the spec requires */
+
+    public boolean isRankKnown() {
+        return shape != null;
+    }
+
+    /** Returns true if the tensor holds a scalar value, false otherwise */
+
+    public boolean isScalar() {
+        return scalar;
+    }
+
+    /** Returns true if the shape has a -1 batch dimension */
+
+    public boolean hasBatchDimension() {
+        return shape != null && shape.length > 0 && shape[0] == -1;
+    }
+
+    /**
+     * Returns the shape with the batch dimension, if there is one, set to batchSize
+     *
+     * @throws IllegalStateException if the rank is unknown
+     */
+
+    public int[] getShape(int batchSize) {
+        if (shape == null) {
+            throw new IllegalStateException("TensorSpec " + name + " has an unknown rank");
+        }
+        int[] batchShape = shape.clone();
+        if (hasBatchDimension()) {
+            batchShape[0] = batchSize;
+        }
+        return batchShape;
+    }
+
+    /** Creates a preallocated tensor for this spec, which must not have a batch dimension */
+
+    public Tensor newTensor() {
+        if (hasBatchDimension()) {
+            throw new IllegalStateException("TensorSpec " + name + " has a batch dimension, use newTensor(batchSize)");
+        }
+        return newTensor(1);
+    }
+
+    /**
+     * Creates a preallocated tensor for this spec with the batch dimension set to batchSize. The
+     * tensor may be reused across runs, either as an input whose bytes you set or as an output
+     * the model writes to directly.
+     */
+
+    public Tensor newTensor(int batchSize) {
+        Tensor tensor = new Tensor(dtype, getShape(batchSize), scalar, name);
+        tensor.preallocate();
+        return tensor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TensorSpec)) {
+            return false;
+        }
+        TensorSpec other = (TensorSpec) o;
+        return name.equals(other.name) && dtype == other.dtype && Arrays.equals(shape, other.shape) && scalar == other.scalar;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + Arrays.hashCode(shape);
+    }
+
+    @Override
+    public String toString() {
+        return "TensorSpec{" + name + ", " + dtype + ", " + (shape == null ? "unknown rank" : Arrays.toString(shape)) + "}";
+    }
+
+    // Private Variables
+
+    private final String name;
+
+    private final DataType dtype;
+
+    private final int[] shape;
+
+    private final boolean scalar;
+}